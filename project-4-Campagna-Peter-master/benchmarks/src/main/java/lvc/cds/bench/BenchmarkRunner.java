@@ -0,0 +1,27 @@
+package lvc.cds.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH command line, but
+ * writes results as JSON (to jmh-result.json) unless told otherwise, so runs
+ * from different releases can be diffed.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        var list = new ArrayList<>(Arrays.asList(args));
+        // JMH names the file jmh-result.json by default
+        if (!list.contains("-rf")) {
+            list.add("-rf");
+            list.add("json");
+        }
+        Main.main(list.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,93 @@
+package lvc.cds.bench;
+
+import java.util.Random;
+
+/**
+ * Key sets and lookup streams shared by the benchmarks.
+ *
+ * A map of size n holds the keys key(0) .. key(n-1), and key(n), key(n+1), ...
+ * are guaranteed misses. For the sequential distribution key(i) is just i, and
+ * lookups walk the keys in order. Otherwise key(i) is i scrambled by a
+ * multiply with an odd constant (a bijection on int, so keys stay distinct), and
+ * lookups pick ranks either uniformly or from a Zipfian distribution.
+ */
+final class Keys {
+    // lookup streams are this long, then wrap around. Must be a power of two.
+    static final int STREAM_LENGTH = 1 << 20;
+    static final int STREAM_MASK = STREAM_LENGTH - 1;
+
+    private static final int SCRAMBLE = 0x9E3779B1;
+    private static final double ZIPF_THETA = 0.99;
+
+    private Keys() {
+    }
+
+    static int key(String distribution, int i) {
+        return "sequential".equals(distribution) ? i : i * SCRAMBLE;
+    }
+
+    /**
+     * Make a stream of lookup keys. A hitRatio fraction of them are present
+     * in a map of the given size; the rest are misses.
+     */
+    static Integer[] lookups(String distribution, int size, double hitRatio, long seed) {
+        var r = new Random(seed);
+        var zipf = "zipfian".equals(distribution) ? new Zipf(size, r) : null;
+        var out = new Integer[STREAM_LENGTH];
+        for (int i = 0; i < out.length; ++i) {
+            int rank;
+            if ("sequential".equals(distribution)) {
+                rank = i % size;
+            } else if (zipf != null) {
+                rank = zipf.next();
+            } else {
+                rank = r.nextInt(size);
+            }
+            boolean hit = r.nextDouble() < hitRatio;
+            out[i] = key(distribution, hit ? rank : size + rank);
+        }
+        return out;
+    }
+
+    /**
+     * The Zipfian generator from Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases" (as used by YCSB). Rank 0 is the
+     * most popular.
+     */
+    private static final class Zipf {
+        private final int n;
+        private final double alpha;
+        private final double zetan;
+        private final double eta;
+        private final Random r;
+
+        Zipf(int n, Random r) {
+            this.n = n;
+            this.r = r;
+            zetan = zeta(n);
+            alpha = 1.0 / (1.0 - ZIPF_THETA);
+            eta = (1 - Math.pow(2.0 / n, 1 - ZIPF_THETA)) / (1 - zeta(2) / zetan);
+        }
+
+        int next() {
+            double u = r.nextDouble();
+            double uz = u * zetan;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, ZIPF_THETA)) {
+                return 1;
+            }
+            int rank = (int) (n * Math.pow(eta * u - eta + 1, alpha));
+            return Math.min(rank, n - 1);
+        }
+
+        private static double zeta(int n) {
+            double sum = 0;
+            for (int i = 1; i <= n; ++i) {
+                sum += 1.0 / Math.pow(i, ZIPF_THETA);
+            }
+            return sum;
+        }
+    }
+}
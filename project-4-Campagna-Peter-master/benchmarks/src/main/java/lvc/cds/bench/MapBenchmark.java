@@ -0,0 +1,193 @@
+package lvc.cds.bench;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ods.AVLMap;
+import ods.BSTMap;
+import ods.BTreeMap;
+import ods.BubbaHashMap;
+import ods.ChainedHashMap;
+import ods.LinearProbedHashMap;
+import ods.Map;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of the basic operations on every ods.Map. Each
+ * benchmark method does one operation, taking its key from a precomputed
+ * lookup stream, and returns the result so the JIT can't throw it away.
+ *
+ * The full parameter grid is large; narrow it from the command line, e.g.
+ * {@code -p impl=avl,linear -p size=1000000}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx16g"})
+@State(Scope.Thread)
+public class MapBenchmark {
+    // how many keys one call of remove() takes out
+    static final int REMOVE_BATCH = 1000;
+
+    @Param({"chained", "linear", "bubba", "bst", "avl", "btree"})
+    String impl;
+
+    @Param({"1000", "100000", "10000000", "100000000"})
+    int size;
+
+    @Param({"uniform", "sequential", "zipfian"})
+    String distribution;
+
+    @Param({"1.0", "0.5", "0.0"})
+    double hitRatio;
+
+    private Map<Integer, Integer> map;
+    private Integer[] lookups;
+    private Integer[] present;
+    private Integer[] absent;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        map = fixture(impl, distribution, size);
+        lookups = Keys.lookups(distribution, size, hitRatio, 42);
+        present = Keys.lookups(distribution, size, 1.0, 43);
+        absent = Keys.lookups(distribution, size, 0.0, 44);
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(lookups[next()]);
+    }
+
+    @Benchmark
+    public boolean containsKey() {
+        return map.containsKey(lookups[next()]);
+    }
+
+    /**
+     * put() of a key that is already there, so the size never changes.
+     */
+    @Benchmark
+    public Integer putExisting() {
+        var k = present[next()];
+        return map.put(k, k);
+    }
+
+    /**
+     * put() of a new key followed by its remove(), so the size never changes.
+     */
+    @Benchmark
+    public Integer putRemove() {
+        var k = absent[next()];
+        map.put(k, k);
+        return map.remove(k);
+    }
+
+    /**
+     * remove() of a key that is there. Each call removes REMOVE_BATCH
+     * distinct keys, which RemoveBatch puts back outside the timed region,
+     * so every remove() hits and the map doesn't shrink as we go.
+     */
+    @Benchmark
+    @OperationsPerInvocation(REMOVE_BATCH)
+    public int remove(RemoveBatch batch) {
+        int hits = 0;
+        for (var k : batch.keys) {
+            if (map.remove(k) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * The keys for the next remove() call: REMOVE_BATCH consecutive ranks,
+     * which are distinct keys since no map is smaller than that.
+     */
+    @State(Scope.Thread)
+    public static class RemoveBatch {
+        Integer[] keys = new Integer[REMOVE_BATCH];
+        private int rank;
+        private final Random rand = new Random(45);
+
+        @Setup(Level.Invocation)
+        public void refill(MapBenchmark b) {
+            // put back what the last call removed, shuffled first so a BSTMap
+            // doesn't grow a REMOVE_BATCH-long chain every time
+            if (keys[0] != null) {
+                Collections.shuffle(Arrays.asList(keys), rand);
+                for (var k : keys) {
+                    b.map.put(k, k);
+                }
+            }
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = Keys.key(b.distribution, rank);
+                rank = (rank + 1) % b.size;
+            }
+        }
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & Keys.STREAM_MASK;
+        return cursor;
+    }
+
+    /**
+     * A map of the given kind holding key(distribution, i) -&gt; i for every
+     * i below size. Sequential keys would make a BSTMap into one long chain
+     * and take O(n^2) time to put in, so that one is bulk loaded instead.
+     * That also makes it balanced, which is worth remembering when comparing
+     * it with the other distributions.
+     */
+    static Map<Integer, Integer> fixture(String impl, String distribution, int size) {
+        if ("bst".equals(impl) && "sequential".equals(distribution)) {
+            var keys = new Integer[size];
+            for (int i = 0; i < size; ++i) {
+                keys[i] = i;
+            }
+            var map = new BSTMap<Integer, Integer>();
+            map.loadSorted(keys, keys.clone());
+            return map;
+        }
+        var map = newMap(impl);
+        for (int i = 0; i < size; ++i) {
+            map.put(Keys.key(distribution, i), i);
+        }
+        return map;
+    }
+
+    static Map<Integer, Integer> newMap(String impl) {
+        switch (impl) {
+            case "chained":
+                return new ChainedHashMap<>();
+            case "linear":
+                return new LinearProbedHashMap<>();
+            case "bubba":
+                return new BubbaHashMap<>();
+            case "bst":
+                return new BSTMap<>();
+            case "avl":
+                return new AVLMap<>();
+            case "btree":
+                return new BTreeMap<>();
+            default:
+                throw new IllegalArgumentException("unknown map: " + impl);
+        }
+    }
+}
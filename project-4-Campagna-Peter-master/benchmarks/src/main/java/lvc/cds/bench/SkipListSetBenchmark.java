@@ -0,0 +1,124 @@
+package lvc.cds.bench;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ods.SkipListSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The SkipListSet counterpart of MapBenchmark: find() is the lookup,
+ * contains() is find() against null, add/remove pairs keep the set at a
+ * constant size, and remove() is timed on its own the same way
+ * MapBenchmark.remove() is.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx16g"})
+@State(Scope.Thread)
+public class SkipListSetBenchmark {
+
+    @Param({"1000", "100000", "10000000", "100000000"})
+    int size;
+
+    @Param({"uniform", "sequential", "zipfian"})
+    String distribution;
+
+    @Param({"1.0", "0.5", "0.0"})
+    double hitRatio;
+
+    SkipListSet<Integer> set;
+    private Integer[] lookups;
+    private Integer[] absent;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        set = new SkipListSet<>();
+        for (int i = 0; i < size; ++i) {
+            set.add(Keys.key(distribution, i));
+        }
+        lookups = Keys.lookups(distribution, size, hitRatio, 42);
+        absent = Keys.lookups(distribution, size, 0.0, 44);
+    }
+
+    @Benchmark
+    public Integer find() {
+        return set.find(lookups[next()]);
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return set.find(lookups[next()]) != null;
+    }
+
+    @Benchmark
+    public Integer addRemove() {
+        var k = absent[next()];
+        set.add(k);
+        return set.remove(k);
+    }
+
+    /**
+     * remove() of an element that is there, REMOVE_BATCH of them per call,
+     * put back by RemoveBatch outside the timed region.
+     */
+    @Benchmark
+    @OperationsPerInvocation(MapBenchmark.REMOVE_BATCH)
+    public int remove(RemoveBatch batch) {
+        int hits = 0;
+        for (var k : batch.keys) {
+            if (set.remove(k) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * The elements for the next remove() call, as in MapBenchmark.RemoveBatch.
+     */
+    @State(Scope.Thread)
+    public static class RemoveBatch {
+        Integer[] keys = new Integer[MapBenchmark.REMOVE_BATCH];
+        private int rank;
+        private final Random rand = new Random(45);
+
+        @Setup(Level.Invocation)
+        public void refill(SkipListSetBenchmark b) {
+            // put back what the last call removed, in random order so the
+            // adds don't all walk forward from the finger
+            if (keys[0] != null) {
+                Collections.shuffle(Arrays.asList(keys), rand);
+                for (var k : keys) {
+                    b.set.add(k);
+                }
+            }
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = Keys.key(b.distribution, rank);
+                rank = (rank + 1) % b.size;
+            }
+        }
+    }
+
+    private int next() {
+        cursor = (cursor + 1) & Keys.STREAM_MASK;
+        return cursor;
+    }
+}
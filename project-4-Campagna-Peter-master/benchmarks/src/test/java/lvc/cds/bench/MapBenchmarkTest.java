@@ -0,0 +1,57 @@
+package lvc.cds.bench;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the benchmark fixtures hold what the benchmarks assume they
+ * do, compared with a java.util.HashMap filled the same way.
+ */
+class MapBenchmarkTest {
+    private static final String[] IMPLS = {"chained", "linear", "bubba", "bst", "avl", "btree"};
+    private static final String[] DISTRIBUTIONS = {"uniform", "sequential", "zipfian"};
+
+    @Test
+    void fixturesHoldEveryKey() {
+        int size = 5000;
+        for (var impl : IMPLS) {
+            for (var dist : DISTRIBUTIONS) {
+                var map = MapBenchmark.fixture(impl, dist, size);
+                var ref = new HashMap<Integer, Integer>();
+                for (int i = 0; i < size; ++i) {
+                    ref.put(Keys.key(dist, i), i);
+                }
+                assertEquals(ref.size(), map.size(), impl + "/" + dist);
+                for (var e : ref.entrySet()) {
+                    assertEquals(e.getValue(), map.get(e.getKey()), impl + "/" + dist);
+                }
+                // the first miss key really is a miss
+                assertEquals(null, map.get(Keys.key(dist, size)), impl + "/" + dist);
+            }
+        }
+    }
+
+    @Test
+    void lookupsHitAsOftenAsAsked() {
+        int size = 1000;
+        for (var dist : DISTRIBUTIONS) {
+            var keys = new HashSet<Integer>();
+            for (int i = 0; i < size; ++i) {
+                keys.add(Keys.key(dist, i));
+            }
+            assertEquals(size, keys.size(), dist);
+            int hits = 0;
+            for (var k : Keys.lookups(dist, size, 0.5, 1)) {
+                if (keys.contains(k)) {
+                    hits++;
+                }
+            }
+            double ratio = hits / (double) Keys.STREAM_LENGTH;
+            assertEquals(0.5, ratio, 0.01, dist);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lvc.cds.bench;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that SkipListSetBenchmark's remove() always finds what it removes,
+ * and that RemoveBatch puts everything back.
+ */
+class SkipListSetBenchmarkTest {
+
+    @Test
+    void removeBatchesAlwaysHit() {
+        for (var dist : new String[] {"uniform", "sequential", "zipfian"}) {
+            var b = new SkipListSetBenchmark();
+            b.size = 2500;
+            b.distribution = dist;
+            b.hitRatio = 1.0;
+            b.setup();
+            var batch = new SkipListSetBenchmark.RemoveBatch();
+            // enough calls to wrap around the ranks
+            for (int call = 0; call < 6; ++call) {
+                batch.refill(b);
+                assertEquals(MapBenchmark.REMOVE_BATCH, b.remove(batch), dist);
+            }
+            batch.refill(b);
+            for (int i = 0; i < b.size; ++i) {
+                var k = Keys.key(dist, i);
+                assertEquals(k, b.set.find(k), dist);
+            }
+        }
+    }
+}
@@ -1,16 +1,38 @@
 package ods;
 
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Comparator;
-
-public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class AVLMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
+    // files written by writeTo() start with MAGIC and the entry count
+    private static final int MAGIC = 0x4F445341; // "ODSA"
+    private static final int HEADER_BYTES = 8;
+    // how much we buffer between the channel and the codecs
+    private static final int IO_BUFFER_BYTES = 1 << 16;
 
     private Node root;
     private Comparator<K> comp;
     private int size;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
 
     public AVLMap() {
         this(Comparator.<K>naturalOrder());
@@ -21,6 +43,15 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
         comp = c;
     }
 
+    /**
+     * Build a balanced map from keys in strictly increasing order, with
+     * values[i] stored under keys[i]. Runs in O(n) time.
+     */
+    public AVLMap(K[] keys, V[] values) {
+        this();
+        loadSorted(keys, values);
+    }
+
     public boolean isBalanced(Node u) {
         int leftHeight = (u.left == null ? -1 : u.left.height);
         int rightHeight = (u.right == null ? -1 : u.right.height);
@@ -170,125 +201,113 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
         fixHeight(heavyBecause);
     }
 
+    /**
+     * Walk down to where key belongs, and only create a Node if it isn't
+     * already there. Then walk back up the parent pointers fixing heights,
+     * stopping as soon as a subtree's height comes out unchanged.
+     */
     @Override
     public V put(K key, V value) {
-        Node newNode = new Node(key, value);
         if (root == null) {
-            root = newNode;
+            root = new Node(key, value);
             size++;
+            modCount++;
             return null;
-        } else {
-            V ret = put(newNode, root);
-            if (ret == null)
-                size++;
-            return ret;
-        }
-    }
-
-    private V put(Node newNode, Node cur) {
-        int c = comp.compare(newNode.key, cur.key);
-        if (c == 0) {
-            V val = cur.value;
-            cur.value = newNode.value;
-            return val;
-        } else if (c < 0) {
-            if (cur.left == null) {
-                cur.left = newNode;
-                newNode.parent = cur;
-                fixHeight(cur);
-                return null;
-            } else {
-                var retVal = put(newNode, cur.left);
-                if (retVal != null) {
-                    return retVal;
-                }
-                // we inserted in the left. See if we need to rebalance.
-                if (isBalanced(cur)) {
-                    fixHeight(cur);
-                    return retVal;
-                } else {
-                    if (getHeight(cur.left.left) > getHeight(cur.left.right)) {
-                        llRotation(cur);
-                    } else {
-                        lrRotation(cur);
-                    }
-                    return null;
-                }
+        }
+        Node cur = root;
+        Node parent = null;
+        int c = 0;
+        while (cur != null) {
+            c = comp.compare(key, cur.key);
+            if (c == 0) {
+                V val = cur.value;
+                cur.value = value;
+                return val;
             }
+            parent = cur;
+            cur = c < 0 ? cur.left : cur.right;
+        }
+
+        // key is new. Hang it off parent and fix up the path back to the root.
+        Node newNode = new Node(key, value);
+        newNode.parent = parent;
+        if (c < 0) {
+            parent.left = newNode;
         } else {
-            if (cur.right == null) {
-                cur.right = newNode;
-                newNode.parent = cur;
-                fixHeight(cur);
-                return null;
-            } else {
-                var retVal = put(newNode, cur.right);
-                if (retVal != null) {
-                    return retVal;
-                }
-                if (isBalanced(cur)) {
-                    fixHeight(cur);
-                    return retVal;
-                } else {
-                    if (getHeight(cur.right.right) > getHeight(cur.right.left)) {
-                        rrRotation(cur);
-                    } else {
-                        rlRotation(cur);
-                    }
-                    return null;
-                }
-            }
+            parent.right = newNode;
         }
+        size++;
+        modCount++;
+        // every subtree on the way down just grew by one. The rotations
+        // recompute sizes from the children, so do this before rebalancing.
+        for (Node p = parent; p != null; p = p.parent) {
+            p.size++;
+        }
+        fixAfterInsert(parent);
+        return null;
     }
 
-    @Override
-    public V remove(K key) {
-        return remove(key, root);
+    private void fixAfterInsert(Node cur) {
+        while (cur != null) {
+            if (!isBalanced(cur)) {
+                // a single or double rotation gives this subtree back the
+                // height it had before the insert, so nothing above changes.
+                rebalance(cur);
+                return;
+            }
+            int oldHeight = cur.height;
+            fixHeight(cur);
+            if (cur.height == oldHeight) {
+                return;
+            }
+            cur = cur.parent;
+        }
     }
 
-    // Rewritten to trim the method down, using a separate method to avoid duplicate
-    // code.
     // The method I called "removeTwig" is essentially the same as the book's
-    // splice().
-    private V remove(K key, Node cur) {
+    // splice(). The search is a loop, the same as get()'s.
+    @Override
+    public V remove(K key) {
+        Node cur = root;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0) {
+                break;
+            }
+            cur = c < 0 ? cur.left : cur.right;
+        }
         if (cur == null) {
             return null;
         }
-        int c = comp.compare(key, cur.key);
-        if (c < 0) {
-            return remove(key, cur.left);
-        } else if (c > 0) {
-            return remove(key, cur.right);
-        } else {
-            // we found it! get it outta here.
-            var val = cur.value;
-            Node start = null;
-            // do we have 2 children?
-            if (cur.left != null && cur.right != null) {
-                // find the replacement
-                var least = cur.right;
-                while (least.left != null) {
-                    least = least.left;
-                }
-                // move payload into this spot
-                cur.key = least.key;
-                cur.value = least.value;
 
-                // remove the stale node
-                
-                start = removeTwig(least);
-            } else {
-                // at most one child
-                start = removeTwig(cur);
-            }
-            while (start != null) {
-                System.out.println("rebalance " + start.key.toString());
-                rebalance(start);
-                start = start.parent;
+        // we found it! get it outta here.
+        var val = cur.value;
+        Node start = null;
+        // do we have 2 children?
+        if (cur.left != null && cur.right != null) {
+            // find the replacement
+            var least = cur.right;
+            while (least.left != null) {
+                least = least.left;
             }
-            size--;
-            return val;
+            // move payload into this spot
+            cur.key = least.key;
+            cur.value = least.value;
+
+            // remove the stale node
+            start = removeTwig(least);
+        } else {
+            // at most one child
+            start = removeTwig(cur);
         }
+        // this also fixes the sizes of everything above the twig
+        while (start != null) {
+            rebalance(start);
+            start = start.parent;
+        }
+        size--;
+        modCount++;
+        return val;
     }
 
     private void rebalance(Node cur) {
@@ -351,6 +370,61 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
         return p;
     }
 
+    /**
+     * Walks the tree once for the whole batch; see SortedBatch.getAll().
+     */
+    @Override
+    public void getAll(K[] keys, V[] out) {
+        SortedBatch.getAll(root, new SortedBatch.Nodes<Node, K, V>() {
+            @Override
+            public K key(Node n) {
+                return n.key;
+            }
+
+            @Override
+            public V value(Node n) {
+                return n.value;
+            }
+
+            @Override
+            public Node left(Node n) {
+                return n.left;
+            }
+
+            @Override
+            public Node right(Node n) {
+                return n.right;
+            }
+        }, keys, out, comp);
+    }
+
+    /**
+     * Sorts the batch first. A batch that is big next to the map is merged
+     * in with mergeSorted(), rebuilding the tree in O(n + m) time. A smaller
+     * one is put in key order, so that each put walks much the same path as
+     * the one before and finds it already in cache.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        int m = keys.length;
+        var order = SortedBatch.sortedOrder(keys, comp);
+        int logN = 32 - Integer.numberOfLeadingZeros(size + m);
+        if ((long) m * logN < size + m) {
+            for (int i : order) {
+                put(keys[i], values[i]);
+            }
+            return;
+        }
+        K[] sk = SortedBatch.newKeys(m);
+        V[] sv = (V[]) new Object[m];
+        int n = SortedBatch.dedupe(keys, values, order, sk, sv, comp);
+        mergeSorted(Arrays.copyOf(sk, n), Arrays.copyOf(sv, n));
+    }
+
     @Override
     public boolean containsKey(K key) {
         return get(key) != null;
@@ -360,6 +434,7 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
     public void clear() {
         root = null;
         size = 0;
+        modCount++;
     }
 
     @Override
@@ -379,8 +454,12 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
             return n.height;
     }
 
-    // Re-compute the height of n, assuming that the heights of n's
-    // children are correct.
+    private int getSize(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    // Re-compute the height (and subtree size) of n, assuming that the
+    // heights and sizes of n's children are correct.
     private void fixHeight(Node n) {
         if (n == null)
             return;
@@ -389,6 +468,525 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
         int r = n.right == null ? -1 : n.right.height;
 
         n.height = Math.max(l, r) + 1;
+        n.size = getSize(n.left) + getSize(n.right) + 1;
+    }
+
+    /**
+     * @return the k-th smallest key, counting from 0. Runs in O(log n) time.
+     * @throws IndexOutOfBoundsException if k is negative or not below size().
+     */
+    public K select(int k) {
+        if (k < 0 || k >= size) {
+            throw new IndexOutOfBoundsException("index " + k + " out of bounds for size " + size);
+        }
+        return nodeAt(k).key;
+    }
+
+    // The node holding the k-th smallest key. k must be in range.
+    private Node nodeAt(int k) {
+        Node cur = root;
+        while (true) {
+            int l = getSize(cur.left);
+            if (k < l) {
+                cur = cur.left;
+            } else if (k == l) {
+                return cur;
+            } else {
+                k -= l + 1;
+                cur = cur.right;
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys less than key, which is also key's index
+     *         if it's in the map. Runs in O(log n) time.
+     */
+    public int rank(K key) {
+        return countBelow(key, false);
+    }
+
+    /**
+     * @return the number of keys k with a &lt;= k &lt;= b. Runs in O(log n)
+     *         time.
+     */
+    public int countRange(K a, K b) {
+        if (comp.compare(a, b) > 0) {
+            return 0;
+        }
+        return countBelow(b, true) - countBelow(a, false);
+    }
+
+    // The number of keys below key (or equal to it, if inclusive). Every time
+    // we go right, the left subtree and cur itself are below key.
+    private int countBelow(K key, boolean inclusive) {
+        Node cur = root;
+        int count = 0;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0) {
+                return count + getSize(cur.left) + (inclusive ? 1 : 0);
+            } else if (c < 0) {
+                cur = cur.left;
+            } else {
+                count += getSize(cur.left) + 1;
+                cur = cur.right;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Replace the contents of this map with a perfectly balanced tree built
+     * from keys, which must be in strictly increasing order, and values.
+     * Runs in O(n) time, with no comparisons beyond checking the order.
+     */
+    public void loadSorted(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        SortedBatch.checkSorted(keys, comp);
+        root = build(keys, values, 0, keys.length - 1, null);
+        size = keys.length;
+        modCount++;
+    }
+
+    /**
+     * Replace the contents of this map with the next n entries of it, which
+     * must come in strictly increasing key order. Runs in O(n) time.
+     */
+    public void loadSorted(Iterator<? extends java.util.Map.Entry<K, V>> it, int n) {
+        root = build(it, n, null, new Object[1]);
+        size = n;
+        modCount++;
+    }
+
+    /**
+     * Add a batch of entries, given in strictly increasing key order, to this
+     * map. A key that is already present gets the new value. The existing
+     * entries and the batch are merged in order and the tree is rebuilt, so
+     * this takes O(n + m) time rather than O(m log(n + m)).
+     */
+    @SuppressWarnings("unchecked")
+    public void mergeSorted(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        SortedBatch.checkSorted(keys, comp);
+        K[] mergedKeys = SortedBatch.newKeys(size + keys.length);
+        V[] mergedValues = (V[]) new Object[size + keys.length];
+        int n = SortedBatch.merge(cursor(), keys, values, mergedKeys, mergedValues, comp);
+        root = build(mergedKeys, mergedValues, 0, n - 1, null);
+        size = n;
+        modCount++;
+    }
+
+    // Build a tree from keys[lo..hi], rooted at the middle element.
+    private Node build(K[] keys, V[] values, int lo, int hi, Node parent) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node cur = new Node(keys[mid], values[mid]);
+        cur.parent = parent;
+        cur.left = build(keys, values, lo, mid - 1, cur);
+        cur.right = build(keys, values, mid + 1, hi, cur);
+        fixHeight(cur);
+        return cur;
+    }
+
+    // Build a tree from the next n entries of it, in order: left subtree,
+    // then the root, then the right subtree. last[0] is the previous key.
+    @SuppressWarnings("unchecked")
+    private Node build(Iterator<? extends java.util.Map.Entry<K, V>> it, int n, Node parent, Object[] last) {
+        if (n == 0) {
+            return null;
+        }
+        int leftSize = (n - 1) / 2;
+        Node left = build(it, leftSize, null, last);
+        var e = it.next();
+        SortedBatch.checkNext((K) last[0], e.getKey(), comp);
+        last[0] = e.getKey();
+        Node cur = new Node(e.getKey(), e.getValue());
+        cur.parent = parent;
+        cur.left = left;
+        if (left != null) {
+            left.parent = cur;
+        }
+        cur.right = build(it, n - 1 - leftSize, cur, last);
+        fixHeight(cur);
+        return cur;
+    }
+
+    private Node first() {
+        Node cur = root;
+        while (cur != null && cur.left != null) {
+            cur = cur.left;
+        }
+        return cur;
+    }
+
+    private Node successor(Node cur) {
+        if (cur.right != null) {
+            cur = cur.right;
+            while (cur.left != null) {
+                cur = cur.left;
+            }
+            return cur;
+        }
+        while (cur.parent != null && cur.parent.right == cur) {
+            cur = cur.parent;
+        }
+        return cur.parent;
+    }
+
+    /**
+     * Walks the entries in key order, by successor pointers, so the whole
+     * walk takes O(n) time.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * A Spliterator over the entries in key order. It splits a range of
+     * entries at its middle index, which the subtree sizes let it find in
+     * O(log n) time. At the top that's the root (give or take a node) and
+     * further down the roots of subtrees, so the halves come out even and
+     * a parallel stream keeps its encounter order. Each entry is a copy,
+     * as with subMap(). The map must not be modified while it's in use.
+     */
+    public Spliterator<java.util.Map.Entry<K, V>> spliterator() {
+        return new TreeSpliterator(0, size);
+    }
+
+    /**
+     * @return a sequential stream of the entries in key order. Call
+     *         parallel() on it to spread the work over the common pool.
+     */
+    public Stream<java.util.Map.Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public K firstKey() {
+        return keyOf(first());
+    }
+
+    @Override
+    public K lastKey() {
+        Node cur = root;
+        while (cur != null && cur.right != null) {
+            cur = cur.right;
+        }
+        return keyOf(cur);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return keyOf(floorNode(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return keyOf(ceilingNode(key, true));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return keyOf(floorNode(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return keyOf(ceilingNode(key, false));
+    }
+
+    @Override
+    public Iterator<java.util.Map.Entry<K, V>> subMap(K from, K to) {
+        return new RangeIterator(ceilingNode(from, true), to);
+    }
+
+    private K keyOf(Node n) {
+        return n == null ? null : n.key;
+    }
+
+    // The node with the largest key below key (or equal to it, if inclusive).
+    private Node floorNode(K key, boolean inclusive) {
+        Node cur = root;
+        Node best = null;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0 && inclusive) {
+                return cur;
+            } else if (c > 0) {
+                // cur is a candidate; anything better is to its right
+                best = cur;
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
+        return best;
+    }
+
+    // The node with the smallest key above key (or equal to it, if inclusive).
+    private Node ceilingNode(K key, boolean inclusive) {
+        Node cur = root;
+        Node best = null;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0 && inclusive) {
+                return cur;
+            } else if (c < 0) {
+                best = cur;
+                cur = cur.left;
+            } else {
+                cur = cur.right;
+            }
+        }
+        return best;
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final int expectedModCount = modCount;
+        private boolean started;
+        private Node cur;
+
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!started) {
+                started = true;
+                cur = first();
+            } else if (cur != null) {
+                cur = successor(cur);
+            }
+            return cur != null;
+        }
+
+        @Override
+        public K key() {
+            return cur.key;
+        }
+
+        @Override
+        public V value() {
+            return cur.value;
+        }
+    }
+
+    /**
+     * Covers the entries with indices lo &lt;= i &lt; hi. The node at lo is
+     * only looked up when it's first needed, since most spliterators are
+     * split again before they're walked.
+     */
+    private class TreeSpliterator implements Spliterator<java.util.Map.Entry<K, V>> {
+        private int lo;
+        private final int hi;
+        // the node at index lo, or null if we haven't found it yet
+        private Node next;
+        private final int expectedModCount = modCount;
+
+        TreeSpliterator(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super java.util.Map.Entry<K, V>> action) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (lo >= hi) {
+                return false;
+            }
+            if (next == null) {
+                next = nodeAt(lo);
+            }
+            Node n = next;
+            next = ++lo < hi ? successor(n) : null;
+            action.accept(new AbstractMap.SimpleImmutableEntry<>(n.key, n.value));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super java.util.Map.Entry<K, V>> action) {
+            if (lo < hi) {
+                Node n = next != null ? next : nodeAt(lo);
+                for (; lo < hi; ++lo) {
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(n.key, n.value));
+                    n = successor(n);
+                }
+                next = null;
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Spliterator<java.util.Map.Entry<K, V>> trySplit() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            var prefix = new TreeSpliterator(lo, mid);
+            prefix.next = next;
+            lo = mid;
+            next = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | DISTINCT | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super java.util.Map.Entry<K, V>> getComparator() {
+            return java.util.Map.Entry.comparingByKey(comp);
+        }
+    }
+
+    /**
+     * Walks successor pointers from a starting node until it reaches a key
+     * that is not below the upper bound.
+     */
+    private class RangeIterator implements Iterator<java.util.Map.Entry<K, V>> {
+        private Node next;
+        private final K to;
+
+        RangeIterator(Node start, K to) {
+            this.next = start;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && comp.compare(next.key, to) < 0;
+        }
+
+        @Override
+        public java.util.Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node n = next;
+            next = successor(n);
+            // a copy, since remove() can move another key into this node
+            return new AbstractMap.SimpleImmutableEntry<>(n.key, n.value);
+        }
+    }
+
+    /**
+     * Save this map to path, replacing whatever is there: a short header and
+     * then every entry in key order, encoded with the given codecs. The file
+     * is streamed out through a small buffer, so saving costs no more memory
+     * than the buffer does.
+     */
+    public void writeTo(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        int kw = keyCodec.width();
+        int record = kw + valueCodec.width();
+        var buf = ByteBuffer.allocate(Math.max(IO_BUFFER_BYTES, record));
+        buf.putInt(MAGIC).putInt(size);
+        try (var ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Node cur = first(); cur != null; cur = successor(cur)) {
+                if (buf.remaining() < record) {
+                    flush(ch, buf);
+                }
+                int pos = buf.position();
+                keyCodec.write(buf, pos, cur.key);
+                valueCodec.write(buf, pos + kw, cur.value);
+                buf.position(pos + record);
+            }
+            flush(ch, buf);
+        }
+    }
+
+    /**
+     * Read back a map saved by writeTo(). The entries come out of the file
+     * already sorted, so the tree is built bottom-up in O(n) time, just as in
+     * loadSorted(), rather than by n puts.
+     * @throws IOException if path can't be read or isn't one of our files.
+     */
+    public static <K extends Comparable<K>, V> AVLMap<K, V> readFrom(Path path, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        int record = keyCodec.width() + valueCodec.width();
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buf = ByteBuffer.allocate(Math.max(IO_BUFFER_BYTES, record));
+            buf.limit(0);
+            fill(ch, buf, HEADER_BYTES);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(path + " is not an AVLMap file");
+            }
+            int n = buf.getInt();
+            if (n < 0 || ch.size() != HEADER_BYTES + (long) n * record) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            var map = new AVLMap<K, V>();
+            // an iterator can't throw IOException, so it smuggles it out
+            // wrapped, and we unwrap it here
+            var entries = new Iterator<java.util.Map.Entry<K, V>>() {
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public java.util.Map.Entry<K, V> next() {
+                    try {
+                        fill(ch, buf, record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    int pos = buf.position();
+                    K key = keyCodec.read(buf, pos);
+                    V value = valueCodec.read(buf, pos + keyCodec.width());
+                    buf.position(pos + record);
+                    return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                }
+            };
+            try {
+                map.loadSorted(entries, n);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " is not in sorted order", e);
+            }
+            return map;
+        }
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    // Make sure buf has at least n bytes ready to read, topping it up from ch.
+    private static void fill(FileChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        buf.compact();
+        while (buf.position() < n) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
     }
 
     public void printInOrder() {
@@ -477,6 +1075,8 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
         K key;
         V value;
         int height;
+        // the number of nodes in the subtree rooted here
+        int size;
 
         Node parent;
         Node left;
@@ -486,6 +1086,7 @@ public class AVLMap<K extends Comparable<K>, V> implements Map<K, V> {
             this.key = key;
             this.value = value;
             height = 0;
+            size = 1;
             parent = left = right = null;
         }
     }
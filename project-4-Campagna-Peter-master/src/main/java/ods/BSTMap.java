@@ -4,12 +4,19 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
-public class BSTMap<K extends Comparable<K>, V> implements Map<K, V> {
+public class BSTMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
     private Node root;
     private Comparator<K> comp;
     private int size;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
 
     public BSTMap() {
         this(Comparator.<K>naturalOrder());
@@ -20,90 +27,93 @@ public class BSTMap<K extends Comparable<K>, V> implements Map<K, V> {
         comp = c;
     }
 
+    /**
+     * Build a balanced map from keys in strictly increasing order, with
+     * values[i] stored under keys[i]. Runs in O(n) time.
+     */
+    public BSTMap(K[] keys, V[] values) {
+        this();
+        loadSorted(keys, values);
+    }
+
+    /**
+     * Walk down to where key belongs, and only create a Node if it isn't
+     * already there.
+     */
     @Override
     public V put(K key, V value) {
-        Node newNode = new Node(key, value);
         if (root == null) {
-            root = newNode;
+            root = new Node(key, value);
             size++;
+            modCount++;
             return null;
-        } else {
-            V ret = put(newNode, root);
-            if (ret == null)
-                size++;
-            return ret;
-        }
-    }
-
-    private V put(Node newNode, Node cur) {
-        int c = comp.compare(newNode.key, cur.key);
-        if (c == 0) {
-            V val = cur.value;
-            cur.value = newNode.value;
-            return val;
-        } else if (c < 0) {
-            if (cur.left == null) {
-                cur.left = newNode;
-                newNode.parent = cur;
-                return null;
-            } else {
-                return put(newNode, cur.left);
-                // we inserted in the left. See if we need to rebalance.
+        }
+        Node cur = root;
+        Node parent = null;
+        int c = 0;
+        while (cur != null) {
+            c = comp.compare(key, cur.key);
+            if (c == 0) {
+                V val = cur.value;
+                cur.value = value;
+                return val;
             }
+            parent = cur;
+            cur = c < 0 ? cur.left : cur.right;
+        }
+
+        Node newNode = new Node(key, value);
+        newNode.parent = parent;
+        if (c < 0) {
+            parent.left = newNode;
         } else {
-            if (cur.right == null) {
-                cur.right = newNode;
-                newNode.parent = cur;
-                return null;
-            } else {
-                return put(newNode, cur.right);
-            }
+            parent.right = newNode;
         }
+        size++;
+        modCount++;
+        return null;
     }
 
+    // The method I called "removeTwig" is essentially the same as the book's
+    // splice(). The search is a loop rather than a recursion, so a tree that
+    // has degenerated into a long chain can't overflow the stack.
     @Override
     public V remove(K key) {
-        return remove(key, root);
-    }
-
-    // Rewritten to trim the method down, using a separate method to avoid duplicate
-    // code.
-    // The method I called "removeTwig" is essentially the same as the book's
-    // splice().
-    private V remove(K key, Node cur) {
+        Node cur = root;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0) {
+                break;
+            }
+            cur = c < 0 ? cur.left : cur.right;
+        }
         if (cur == null) {
             return null;
         }
 
-        int c = comp.compare(key, cur.key);
-        if (c < 0) {
-            return remove(key, cur.left);
-        } else if (c > 0) {
-            return remove(key, cur.right);
-        } else {
-            // we found it! get it outta here.
-            var val = cur.value;
-
-            // do we have 2 children?
-            if (cur.left != null && cur.right != null) {
-                // find the replacement
-                var least = cur.right;
-                while (least.left != null) {
-                    least = least.left;
-                }
-                // move payload into this spot
-                cur.key = least.key;
-                cur.value = least.value;
+        // we found it! get it outta here.
+        var val = cur.value;
 
-                // remove the stale node
-                removeTwig(least);
-            } else {
-                // at most one child
-                removeTwig(cur);
+        // do we have 2 children?
+        if (cur.left != null && cur.right != null) {
+            // find the replacement
+            var least = cur.right;
+            while (least.left != null) {
+                least = least.left;
             }
-            size--;
-            return val;
+            // move payload into this spot
+            cur.key = least.key;
+            cur.value = least.value;
+
+            // remove the stale node
+            removeTwig(least);
+        } else {
+            // at most one child
+            removeTwig(cur);
         }
+        size--;
+        modCount++;
+        return val;
     }
 
     @Override
@@ -147,6 +157,70 @@ public class BSTMap<K extends Comparable<K>, V> implements Map<K, V> {
         }
     }
 
+    /**
+     * Walks the tree once for the whole batch; see SortedBatch.getAll().
+     */
+    @Override
+    public void getAll(K[] keys, V[] out) {
+        SortedBatch.getAll(root, new SortedBatch.Nodes<Node, K, V>() {
+            @Override
+            public K key(Node n) {
+                return n.key;
+            }
+
+            @Override
+            public V value(Node n) {
+                return n.value;
+            }
+
+            @Override
+            public Node left(Node n) {
+                return n.left;
+            }
+
+            @Override
+            public Node right(Node n) {
+                return n.right;
+            }
+        }, keys, out, comp);
+    }
+
+    /**
+     * Sorts the batch first. A batch that is big next to the map is merged
+     * in with mergeSorted(), rebuilding the tree in O(n + m) time. A smaller
+     * one is put middle key first, then the middles of each half, and so on.
+     * Putting sorted keys straight in would hang them off each other in a
+     * long chain.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        int m = keys.length;
+        var order = SortedBatch.sortedOrder(keys, comp);
+        K[] sk = SortedBatch.newKeys(m);
+        V[] sv = (V[]) new Object[m];
+        int n = SortedBatch.dedupe(keys, values, order, sk, sv, comp);
+        int logN = 32 - Integer.numberOfLeadingZeros(size + m);
+        if ((long) m * logN < size + m) {
+            putMiddleFirst(sk, sv, 0, n - 1);
+        } else {
+            mergeSorted(Arrays.copyOf(sk, n), Arrays.copyOf(sv, n));
+        }
+    }
+
+    private void putMiddleFirst(K[] keys, V[] values, int lo, int hi) {
+        if (lo > hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        put(keys[mid], values[mid]);
+        putMiddleFirst(keys, values, lo, mid - 1);
+        putMiddleFirst(keys, values, mid + 1, hi);
+    }
+
     @Override
     public boolean containsKey(K key) {
         return get(key) != null;
@@ -156,6 +230,7 @@ public class BSTMap<K extends Comparable<K>, V> implements Map<K, V> {
     public void clear() {
         root = null;
         size = 0;
+        modCount++;
     }
 
     @Override
@@ -180,6 +255,259 @@ public class BSTMap<K extends Comparable<K>, V> implements Map<K, V> {
         n.height = Math.max(l, r) + 1;
     }
 
+    /**
+     * Replace the contents of this map with a perfectly balanced tree built
+     * from keys, which must be in strictly increasing order, and values.
+     * Runs in O(n) time, with no comparisons beyond checking the order.
+     */
+    public void loadSorted(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        SortedBatch.checkSorted(keys, comp);
+        root = build(keys, values, 0, keys.length - 1, null);
+        size = keys.length;
+        modCount++;
+    }
+
+    /**
+     * Replace the contents of this map with the next n entries of it, which
+     * must come in strictly increasing key order. Runs in O(n) time.
+     */
+    public void loadSorted(Iterator<? extends java.util.Map.Entry<K, V>> it, int n) {
+        root = build(it, n, null, new Object[1]);
+        size = n;
+        modCount++;
+    }
+
+    /**
+     * Add a batch of entries, given in strictly increasing key order, to this
+     * map. A key that is already present gets the new value. The existing
+     * entries and the batch are merged in order and the tree is rebuilt, so
+     * this takes O(n + m) time rather than O(m log(n + m)).
+     */
+    @SuppressWarnings("unchecked")
+    public void mergeSorted(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        SortedBatch.checkSorted(keys, comp);
+        K[] mergedKeys = SortedBatch.newKeys(size + keys.length);
+        V[] mergedValues = (V[]) new Object[size + keys.length];
+        int n = SortedBatch.merge(cursor(), keys, values, mergedKeys, mergedValues, comp);
+        root = build(mergedKeys, mergedValues, 0, n - 1, null);
+        size = n;
+        modCount++;
+    }
+
+    // Build a tree from keys[lo..hi], rooted at the middle element.
+    private Node build(K[] keys, V[] values, int lo, int hi, Node parent) {
+        if (lo > hi) {
+            return null;
+        }
+        int mid = (lo + hi) >>> 1;
+        Node cur = new Node(keys[mid], values[mid]);
+        cur.parent = parent;
+        cur.left = build(keys, values, lo, mid - 1, cur);
+        cur.right = build(keys, values, mid + 1, hi, cur);
+        fixHeight(cur);
+        return cur;
+    }
+
+    // Build a tree from the next n entries of it, in order: left subtree,
+    // then the root, then the right subtree. last[0] is the previous key.
+    @SuppressWarnings("unchecked")
+    private Node build(Iterator<? extends java.util.Map.Entry<K, V>> it, int n, Node parent, Object[] last) {
+        if (n == 0) {
+            return null;
+        }
+        int leftSize = (n - 1) / 2;
+        Node left = build(it, leftSize, null, last);
+        var e = it.next();
+        SortedBatch.checkNext((K) last[0], e.getKey(), comp);
+        last[0] = e.getKey();
+        Node cur = new Node(e.getKey(), e.getValue());
+        cur.parent = parent;
+        cur.left = left;
+        if (left != null) {
+            left.parent = cur;
+        }
+        cur.right = build(it, n - 1 - leftSize, cur, last);
+        fixHeight(cur);
+        return cur;
+    }
+
+    private Node first() {
+        Node cur = root;
+        while (cur != null && cur.left != null) {
+            cur = cur.left;
+        }
+        return cur;
+    }
+
+    private Node successor(Node cur) {
+        if (cur.right != null) {
+            cur = cur.right;
+            while (cur.left != null) {
+                cur = cur.left;
+            }
+            return cur;
+        }
+        while (cur.parent != null && cur.parent.right == cur) {
+            cur = cur.parent;
+        }
+        return cur.parent;
+    }
+
+    /**
+     * Walks the entries in key order, by successor pointers, so the whole
+     * walk takes O(n) time.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        return new Cursor();
+    }
+
+    @Override
+    public K firstKey() {
+        return keyOf(first());
+    }
+
+    @Override
+    public K lastKey() {
+        Node cur = root;
+        while (cur != null && cur.right != null) {
+            cur = cur.right;
+        }
+        return keyOf(cur);
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return keyOf(floorNode(key, true));
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return keyOf(ceilingNode(key, true));
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return keyOf(floorNode(key, false));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return keyOf(ceilingNode(key, false));
+    }
+
+    @Override
+    public Iterator<java.util.Map.Entry<K, V>> subMap(K from, K to) {
+        return new RangeIterator(ceilingNode(from, true), to);
+    }
+
+    private K keyOf(Node n) {
+        return n == null ? null : n.key;
+    }
+
+    // The node with the largest key below key (or equal to it, if inclusive).
+    private Node floorNode(K key, boolean inclusive) {
+        Node cur = root;
+        Node best = null;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0 && inclusive) {
+                return cur;
+            } else if (c > 0) {
+                // cur is a candidate; anything better is to its right
+                best = cur;
+                cur = cur.right;
+            } else {
+                cur = cur.left;
+            }
+        }
+        return best;
+    }
+
+    // The node with the smallest key above key (or equal to it, if inclusive).
+    private Node ceilingNode(K key, boolean inclusive) {
+        Node cur = root;
+        Node best = null;
+        while (cur != null) {
+            int c = comp.compare(key, cur.key);
+            if (c == 0 && inclusive) {
+                return cur;
+            } else if (c < 0) {
+                best = cur;
+                cur = cur.left;
+            } else {
+                cur = cur.right;
+            }
+        }
+        return best;
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final int expectedModCount = modCount;
+        private boolean started;
+        private Node cur;
+
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (!started) {
+                started = true;
+                cur = first();
+            } else if (cur != null) {
+                cur = successor(cur);
+            }
+            return cur != null;
+        }
+
+        @Override
+        public K key() {
+            return cur.key;
+        }
+
+        @Override
+        public V value() {
+            return cur.value;
+        }
+    }
+
+    /**
+     * Walks successor pointers from a starting node until it reaches a key
+     * that is not below the upper bound.
+     */
+    private class RangeIterator implements Iterator<java.util.Map.Entry<K, V>> {
+        private Node next;
+        private final K to;
+
+        RangeIterator(Node start, K to) {
+            this.next = start;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && comp.compare(next.key, to) < 0;
+        }
+
+        @Override
+        public java.util.Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node n = next;
+            next = successor(n);
+            // a copy, since remove() can move another key into this node
+            return new AbstractMap.SimpleImmutableEntry<>(n.key, n.value);
+        }
+    }
+
     public void printInOrder() {
         Node cur = root;
         while (cur.left != null) {
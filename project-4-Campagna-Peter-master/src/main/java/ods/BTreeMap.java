@@ -0,0 +1,614 @@
+package ods;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An ordered map stored as a B+ tree. Every entry lives in a leaf. The inner
+ * nodes hold only separator keys, which send a search to the right child.
+ * A node keeps its keys in one contiguous array and is searched by binary
+ * search, so a lookup touches about log_F(n) nodes (F is the fanout) instead
+ * of AVLMap's log_2(n). Those are far fewer cache misses. The leaves are
+ * linked both ways, so a range scan walks along them without going back up
+ * the tree.
+ *
+ * The fanout is the most keys a node may hold. Every node but the root keeps
+ * at least half that many. An inner node has one more child than it has
+ * keys. Separator i is no larger than any key in child i + 1, and larger than
+ * every key in child i.
+ *
+ * @param <K> the type of the search keys.
+ * @param <V> the value type associated with our keys.
+ */
+public class BTreeMap<K extends Comparable<K>, V> implements SortedMap<K, V> {
+    private static final int DEFAULT_FANOUT = 64;
+
+    private final int maxKeys;
+    private final int minKeys;
+    private Comparator<K> comp;
+    private Node root;
+    private int size;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
+    // the number of inner levels above the leaves
+    private int height;
+
+    // the inner nodes put() and remove() passed through on the way down, and
+    // which child they took at each one. Reused from call to call.
+    private Inner[] path;
+    private int[] pathIdx;
+
+    public BTreeMap() {
+        this(DEFAULT_FANOUT);
+    }
+
+    public BTreeMap(int fanout) {
+        this(fanout, Comparator.<K>naturalOrder());
+    }
+
+    public BTreeMap(Comparator<K> c) {
+        this(DEFAULT_FANOUT, c);
+    }
+
+    public BTreeMap(int fanout, Comparator<K> c) {
+        if (fanout < 3) {
+            throw new IllegalArgumentException("fanout must be at least 3");
+        }
+        maxKeys = fanout;
+        minKeys = fanout / 2;
+        comp = c;
+        path = new Inner[4];
+        pathIdx = new int[4];
+        clear();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        var leaf = descend(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            V val = (V) leaf.values[i];
+            leaf.values[i] = value;
+            return val;
+        }
+        i = -i - 1;
+        // nodes have room for one key too many, so insert first and then
+        // split if we have to
+        System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+        System.arraycopy(leaf.values, i, leaf.values, i + 1, leaf.n - i);
+        leaf.keys[i] = key;
+        leaf.values[i] = value;
+        leaf.n++;
+        size++;
+        modCount++;
+        if (leaf.n > maxKeys) {
+            split(leaf);
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        var leaf = descend(key);
+        int i = search(leaf, key);
+        if (i < 0) {
+            return null;
+        }
+        V val = (V) leaf.values[i];
+        System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+        System.arraycopy(leaf.values, i + 1, leaf.values, i, leaf.n - i - 1);
+        leaf.n--;
+        leaf.keys[leaf.n] = null;
+        leaf.values[leaf.n] = null;
+        size--;
+        modCount++;
+
+        // Top up underfull nodes from the bottom, by borrowing from a sibling
+        // if one can spare a key, and otherwise by merging with one. A merge
+        // takes a key away from the parent, which may leave it underfull too.
+        Node node = leaf;
+        for (int level = height - 1; level >= 0 && node.n < minKeys; --level) {
+            var parent = path[level];
+            int ci = pathIdx[level];
+            if (ci > 0 && parent.children[ci - 1].n > minKeys) {
+                borrowFromLeft(parent, ci);
+                break;
+            } else if (ci < parent.n && parent.children[ci + 1].n > minKeys) {
+                borrowFromRight(parent, ci);
+                break;
+            }
+            merge(parent, ci > 0 ? ci - 1 : ci);
+            node = parent;
+        }
+        // the root is allowed to be underfull, but an inner root with one
+        // child is just a wasted level
+        if (root.n == 0 && root instanceof Inner) {
+            root = ((Inner) root).children[0];
+            height--;
+        }
+        return val;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        var leaf = findLeaf(key);
+        int i = search(leaf, key);
+        return i >= 0 ? (V) leaf.values[i] : null;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public void clear() {
+        root = new Leaf(maxKeys + 1);
+        size = 0;
+        modCount++;
+        height = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Walks the leaves from left to right, so the keys come out in order.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        Node cur = root;
+        while (cur instanceof Inner) {
+            cur = ((Inner) cur).children[0];
+        }
+        return new Cursor((Leaf) cur);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K firstKey() {
+        Node cur = root;
+        while (cur instanceof Inner) {
+            cur = ((Inner) cur).children[0];
+        }
+        return cur.n == 0 ? null : (K) cur.keys[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K lastKey() {
+        Node cur = root;
+        while (cur instanceof Inner) {
+            cur = ((Inner) cur).children[cur.n];
+        }
+        return cur.n == 0 ? null : (K) cur.keys[cur.n - 1];
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return floorKey(key, true);
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return ceilingKey(key, true);
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return floorKey(key, false);
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return ceilingKey(key, false);
+    }
+
+    @Override
+    public Iterator<java.util.Map.Entry<K, V>> subMap(K from, K to) {
+        var leaf = findLeaf(from);
+        int i = search(leaf, from);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return new RangeIterator(leaf, i, to);
+    }
+
+    public void printStats() {
+        System.out.println("Size: " + size);
+        System.out.println("Fanout: " + maxKeys);
+        System.out.println("Height: " + (height + 1));
+    }
+
+    // The largest key below key (or equal to it, if inclusive).
+    @SuppressWarnings("unchecked")
+    private K floorKey(K key, boolean inclusive) {
+        var leaf = findLeaf(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            if (inclusive) {
+                return key;
+            }
+            i--;
+        } else {
+            i = -i - 2;
+        }
+        // everything in earlier leaves is smaller than key, so if this leaf
+        // has nothing, the answer is the end of the previous one
+        if (i < 0) {
+            leaf = leaf.prev;
+            if (leaf == null) {
+                return null;
+            }
+            i = leaf.n - 1;
+        }
+        return (K) leaf.keys[i];
+    }
+
+    // The smallest key above key (or equal to it, if inclusive).
+    @SuppressWarnings("unchecked")
+    private K ceilingKey(K key, boolean inclusive) {
+        var leaf = findLeaf(key);
+        int i = search(leaf, key);
+        if (i >= 0) {
+            if (inclusive) {
+                return key;
+            }
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        if (i == leaf.n) {
+            leaf = leaf.next;
+            if (leaf == null) {
+                return null;
+            }
+            i = 0;
+        }
+        return (K) leaf.keys[i];
+    }
+
+    /**
+     * Walk down to the leaf where key belongs.
+     */
+    private Leaf findLeaf(K key) {
+        Node cur = root;
+        while (cur instanceof Inner) {
+            var in = (Inner) cur;
+            cur = in.children[childIndex(in, key)];
+        }
+        return (Leaf) cur;
+    }
+
+    /**
+     * Like findLeaf, but records the path in path and pathIdx.
+     */
+    private Leaf descend(K key) {
+        if (path.length < height) {
+            path = new Inner[height * 2];
+            pathIdx = new int[height * 2];
+        }
+        Node cur = root;
+        for (int level = 0; level < height; ++level) {
+            var in = (Inner) cur;
+            int ci = childIndex(in, key);
+            path[level] = in;
+            pathIdx[level] = ci;
+            cur = in.children[ci];
+        }
+        return (Leaf) cur;
+    }
+
+    /**
+     * The child of in whose keys span key, i.e., the number of separators
+     * that are &lt;= key.
+     */
+    @SuppressWarnings("unchecked")
+    private int childIndex(Inner in, K key) {
+        int lo = 0;
+        int hi = in.n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comp.compare(key, (K) in.keys[mid]) < 0) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Binary search node's keys.
+     * @return key's index, or (-(insertion point) - 1) if it isn't there.
+     */
+    @SuppressWarnings("unchecked")
+    private int search(Node node, K key) {
+        int lo = 0;
+        int hi = node.n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = comp.compare((K) node.keys[mid], key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Split the overfull leaf that put() just reached, and keep splitting
+     * up the path for as long as the parents overflow too.
+     */
+    private void split(Leaf leaf) {
+        // the upper half of leaf moves to a new leaf to its right
+        int mid = leaf.n / 2;
+        var right = new Leaf(maxKeys + 1);
+        right.n = leaf.n - mid;
+        System.arraycopy(leaf.keys, mid, right.keys, 0, right.n);
+        System.arraycopy(leaf.values, mid, right.values, 0, right.n);
+        for (int i = mid; i < leaf.n; ++i) {
+            leaf.keys[i] = null;
+            leaf.values[i] = null;
+        }
+        leaf.n = mid;
+        right.next = leaf.next;
+        if (right.next != null) {
+            right.next.prev = right;
+        }
+        right.prev = leaf;
+        leaf.next = right;
+
+        Object sep = right.keys[0];
+        Node newChild = right;
+        for (int level = height - 1; level >= 0; --level) {
+            var parent = path[level];
+            int ci = pathIdx[level];
+            System.arraycopy(parent.keys, ci, parent.keys, ci + 1, parent.n - ci);
+            System.arraycopy(parent.children, ci + 1, parent.children, ci + 2, parent.n - ci);
+            parent.keys[ci] = sep;
+            parent.children[ci + 1] = newChild;
+            parent.n++;
+            if (parent.n <= maxKeys) {
+                return;
+            }
+            // the middle key moves up, and everything after it goes right
+            mid = parent.n / 2;
+            sep = parent.keys[mid];
+            var in = new Inner(maxKeys + 1);
+            in.n = parent.n - mid - 1;
+            System.arraycopy(parent.keys, mid + 1, in.keys, 0, in.n);
+            System.arraycopy(parent.children, mid + 1, in.children, 0, in.n + 1);
+            for (int i = mid; i < parent.n; ++i) {
+                parent.keys[i] = null;
+                parent.children[i + 1] = null;
+            }
+            parent.n = mid;
+            newChild = in;
+        }
+        // the root split, so the tree gets taller
+        var newRoot = new Inner(maxKeys + 1);
+        newRoot.keys[0] = sep;
+        newRoot.children[0] = root;
+        newRoot.children[1] = newChild;
+        newRoot.n = 1;
+        root = newRoot;
+        height++;
+    }
+
+    // Move the last key of child ci - 1 of parent to the front of child ci.
+    private void borrowFromLeft(Inner parent, int ci) {
+        var left = parent.children[ci - 1];
+        var cur = parent.children[ci];
+        System.arraycopy(cur.keys, 0, cur.keys, 1, cur.n);
+        if (cur instanceof Leaf) {
+            var l = (Leaf) left;
+            var c = (Leaf) cur;
+            System.arraycopy(c.values, 0, c.values, 1, c.n);
+            c.keys[0] = l.keys[l.n - 1];
+            c.values[0] = l.values[l.n - 1];
+            l.values[l.n - 1] = null;
+            parent.keys[ci - 1] = c.keys[0];
+        } else {
+            // the separator comes down, and left's last key goes up
+            var l = (Inner) left;
+            var c = (Inner) cur;
+            System.arraycopy(c.children, 0, c.children, 1, c.n + 1);
+            c.keys[0] = parent.keys[ci - 1];
+            c.children[0] = l.children[l.n];
+            l.children[l.n] = null;
+            parent.keys[ci - 1] = l.keys[l.n - 1];
+        }
+        left.keys[left.n - 1] = null;
+        left.n--;
+        cur.n++;
+    }
+
+    // Move the first key of child ci + 1 of parent to the end of child ci.
+    private void borrowFromRight(Inner parent, int ci) {
+        var cur = parent.children[ci];
+        var right = parent.children[ci + 1];
+        if (cur instanceof Leaf) {
+            var c = (Leaf) cur;
+            var r = (Leaf) right;
+            c.keys[c.n] = r.keys[0];
+            c.values[c.n] = r.values[0];
+            System.arraycopy(r.values, 1, r.values, 0, r.n - 1);
+            r.values[r.n - 1] = null;
+            parent.keys[ci] = r.keys[1];
+        } else {
+            var c = (Inner) cur;
+            var r = (Inner) right;
+            c.keys[c.n] = parent.keys[ci];
+            c.children[c.n + 1] = r.children[0];
+            parent.keys[ci] = r.keys[0];
+            System.arraycopy(r.children, 1, r.children, 0, r.n);
+            r.children[r.n] = null;
+        }
+        System.arraycopy(right.keys, 1, right.keys, 0, right.n - 1);
+        right.keys[right.n - 1] = null;
+        right.n--;
+        cur.n++;
+    }
+
+    // Merge child i + 1 of parent into child i, and drop separator i.
+    private void merge(Inner parent, int i) {
+        var left = parent.children[i];
+        var right = parent.children[i + 1];
+        if (left instanceof Leaf) {
+            var l = (Leaf) left;
+            var r = (Leaf) right;
+            System.arraycopy(r.keys, 0, l.keys, l.n, r.n);
+            System.arraycopy(r.values, 0, l.values, l.n, r.n);
+            l.n += r.n;
+            l.next = r.next;
+            if (l.next != null) {
+                l.next.prev = l;
+            }
+        } else {
+            // the separator comes down between the two halves
+            var l = (Inner) left;
+            var r = (Inner) right;
+            l.keys[l.n] = parent.keys[i];
+            System.arraycopy(r.keys, 0, l.keys, l.n + 1, r.n);
+            System.arraycopy(r.children, 0, l.children, l.n + 1, r.n + 1);
+            l.n += r.n + 1;
+        }
+        System.arraycopy(parent.keys, i + 1, parent.keys, i, parent.n - i - 1);
+        System.arraycopy(parent.children, i + 2, parent.children, i + 1, parent.n - i - 1);
+        parent.n--;
+        parent.keys[parent.n] = null;
+        parent.children[parent.n + 1] = null;
+    }
+
+    /**
+     * Walks the leaves from a starting position until it reaches a key that
+     * is not below the upper bound.
+     */
+    private class RangeIterator implements Iterator<java.util.Map.Entry<K, V>> {
+        private Leaf leaf;
+        private int idx;
+        private final K to;
+
+        RangeIterator(Leaf leaf, int idx, K to) {
+            this.leaf = leaf;
+            this.idx = idx;
+            this.to = to;
+            skipToKey();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean hasNext() {
+            return leaf != null && comp.compare((K) leaf.keys[idx], to) < 0;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public java.util.Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            var e = new AbstractMap.SimpleImmutableEntry<>((K) leaf.keys[idx], (V) leaf.values[idx]);
+            idx++;
+            skipToKey();
+            return e;
+        }
+
+        // if we're off the end of this leaf, move to the start of the next
+        private void skipToKey() {
+            if (leaf != null && idx == leaf.n) {
+                leaf = leaf.next;
+                idx = 0;
+            }
+        }
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final int expectedModCount = modCount;
+        private Leaf leaf;
+        private int idx = -1;
+
+        Cursor(Leaf first) {
+            leaf = first;
+        }
+
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (leaf == null) {
+                return false;
+            }
+            idx++;
+            // only the root leaf of an empty tree has no keys, but skipping
+            // empties costs nothing
+            while (leaf != null && idx == leaf.n) {
+                leaf = leaf.next;
+                idx = 0;
+            }
+            return leaf != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K key() {
+            return (K) leaf.keys[idx];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V value() {
+            return (V) leaf.values[idx];
+        }
+    }
+
+    // Every node has room for one key more than maxKeys. That is where
+    // put() inserts before it splits.
+    private abstract static class Node {
+        Object[] keys;
+        int n;
+
+        Node(int cap) {
+            keys = new Object[cap];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        Object[] values;
+        Leaf next;
+        Leaf prev;
+
+        Leaf(int cap) {
+            super(cap);
+            values = new Object[cap];
+        }
+    }
+
+    private static final class Inner extends Node {
+        Node[] children;
+
+        Inner(int cap) {
+            super(cap);
+            children = new Node[cap + 1];
+        }
+    }
+}
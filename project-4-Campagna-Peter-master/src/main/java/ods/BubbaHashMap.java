@@ -1,19 +1,29 @@
 package ods;
 
 import java.lang.reflect.Array;
+import java.util.ConcurrentModificationException;
 
 /**
- * A linear-probed hash table, using the strategies from the reading.
- * This code has not been tested well. You may find bugs! Report them,
- * please.
+ * A linear-probed hash table that uses Robin Hood hashing. Every entry
+ * remembers how far it sits from its home slot (its probe distance). On
+ * insert, an entry that is closer to home than the one we are carrying gets
+ * bumped further down the table ("take from the rich, give to the poor"), which
+ * keeps probe sequences short and even at high load factors. Removal shifts the
+ * following entries back one slot instead of leaving tombstones behind.
+ *
+ * As in LinearProbedHashMap, the capacity is a power of two and slots are
+ * picked by masking the output of a pluggable Hasher.
  */
 public class BubbaHashMap<K, V> implements Map<K, V> {
     private static final int DEFAULT_CAPACITY = 8;
-    private static final double DEFAULT_LOADFACTOR = 0.5;
+    private static final double DEFAULT_LOADFACTOR = 0.85;
 
     private Entry[] table;
     private int size;
     private double loadFactor;
+    private Hasher<K> hasher;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
 
     public BubbaHashMap() {
         this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR);
@@ -28,40 +38,44 @@ public class BubbaHashMap<K, V> implements Map<K, V> {
     }
 
     public BubbaHashMap(int initCap, double lf) {
+        this(initCap, lf, Hasher.murmur());
+    }
+
+    public BubbaHashMap(Hasher<K> hasher) {
+        this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR, hasher);
+    }
+
+    public BubbaHashMap(int initCap, double lf, Hasher<K> hasher) {
         clear(initCap);
         loadFactor = lf;
+        this.hasher = hasher;
     }
 
     /**
-     * TODO: Rewrite to use Bubba's ideas
+     * Implements Map.put. We first probe for a duplicate; the Robin Hood
+     * invariant lets us stop as soon as we meet an entry that is closer to its
+     * home than we are to ours. If the key isn't there, we insert at that
+     * spot and carry the displaced entries forward until we hit an empty slot.
      */
     @Override
     public V put(K key, V value) {
-        int delPos = -1;
         int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key == null && delPos == -1) {
-                // this is where we'll put the new entry,
-                // if we decide to
-                delPos = idx;
-            } else if (table[idx].key.equals(key)) {
-                // found a dup. Update the value and return the original
+        int dist = 0;
+        while (table[idx] != null && table[idx].dist >= dist) {
+            // only an entry with the same home slot can hold our key
+            if (table[idx].dist == dist && table[idx].key.equals(key)) {
                 V oldVal = table[idx].value;
                 table[idx].value = value;
                 return oldVal;
             }
             idx = increment(idx);
+            dist++;
         }
-        // if we get here, we didn't find a duplicate. We either insert at the
-        // first deleted position we found, or at the null that stopped our search.
-        if (delPos != -1) {
-            table[delPos].key = key;
-            table[delPos].value = value;
-        }
-        else {
-            table[idx] = new Entry(key, value);
-        }
+
+        // if we get here, the key is not present. idx is where it belongs.
+        place(new Entry(key, value, dist), idx);
         size++;
+        modCount++;
 
         // If we exceed the loadfactor, double the size.
         if (size >= loadFactor * table.length) {
@@ -72,45 +86,41 @@ public class BubbaHashMap<K, V> implements Map<K, V> {
     }
 
     /**
-     * TODO: Bubba rewrite
+     * Find the key, then shift every following entry that isn't already in
+     * its home slot back by one. No tombstones are ever left in the table.
      */
     @Override
     public V remove(K key) {
-        int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key != null && table[idx].key.equals(key)) {
-                // we found this key. Return the associated value, null out
-                // the key and value so the entry becomes a "tombstone", resize,
-                // rehash as necessary.
-                V val = table[idx].value;
-                table[idx].key = null;
-                table[idx].value = null;
-                size--;
-
-                // check to see if we can save some space.
-                if (size < loadFactor * table.length / 4.0) {
-                    rehash(table.length / 2);
-                }
-                return val;
-            }
-            idx = increment(idx);
+        int idx = find(key);
+        if (idx == -1) {
+            return null;
         }
-        return null;
+        V val = table[idx].value;
+
+        // backward-shift deletion: stop at an empty slot or an entry that is
+        // already home, since neither may move closer to the front.
+        int next = increment(idx);
+        while (table[next] != null && table[next].dist > 0) {
+            table[idx] = table[next];
+            table[idx].dist--;
+            idx = next;
+            next = increment(next);
+        }
+        table[idx] = null;
+        size--;
+        modCount++;
+
+        // check to see if we can save some space.
+        if (table.length > DEFAULT_CAPACITY && size < loadFactor * table.length / 4.0) {
+            rehash(table.length / 2);
+        }
+        return val;
     }
 
-    /**
-     * TODO: Bubba knows best
-     */
     @Override
     public V get(K key) {
-        int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key != null && table[idx].key.equals(key)) {
-                return table[idx].value;
-            }
-            idx = increment(idx);
-        }
-        return null;
+        int idx = find(key);
+        return idx == -1 ? null : table[idx].value;
     }
 
     @Override
@@ -133,58 +143,140 @@ public class BubbaHashMap<K, V> implements Map<K, V> {
         return size;
     }
 
+    /**
+     * Walks the table in slot order, skipping the empty slots.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        return new Cursor();
+    }
+
     @SuppressWarnings("unchecked")
     private void clear(int cap) {
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
         table = (Entry[]) Array.newInstance(Entry.class, cap);
         size = 0;
+        modCount++;
     }
 
     private int hash(K key) {
-        return Math.abs(key.hashCode() % table.length);
+        return hasher.hash(key) & (table.length - 1);
     }
 
     private int increment(int idx) {
-        idx++;
-        return idx == table.length ? 0 : idx;
+        return (idx + 1) & (table.length - 1);
     }
 
     /**
-     * TODO: Does this need a rewrite?
+     * Return the slot holding key, or -1. A miss ends early: once our own
+     * probe distance exceeds that of the entry in front of us, the key would
+     * have displaced that entry had it been inserted.
+     */
+    private int find(K key) {
+        int idx = hash(key);
+        int dist = 0;
+        while (table[idx] != null && table[idx].dist >= dist) {
+            if (table[idx].dist == dist && table[idx].key.equals(key)) {
+                return idx;
+            }
+            idx = increment(idx);
+            dist++;
+        }
+        return -1;
+    }
+
+    /**
+     * Put e into the table starting at idx, where e.dist is already the
+     * probe distance of idx. Richer entries are swapped out and carried on.
+     */
+    private void place(Entry e, int idx) {
+        while (table[idx] != null) {
+            if (table[idx].dist < e.dist) {
+                var tmp = table[idx];
+                table[idx] = e;
+                e = tmp;
+            }
+            idx = increment(idx);
+            e.dist++;
+        }
+        table[idx] = e;
+    }
+
+    /**
+     * Move every entry into a table of the new size. Keys are known to be
+     * distinct, so we skip the duplicate search and reuse the Entry objects.
      * @param newCap
      */
     private void rehash(int newCap) {
-        // make a new table of the new size, then iterate over the old
-        // table and reinsert each entry.
         var oldTable = table;
+        int oldSize = size;
         clear(newCap);
         for (var e : oldTable) {
-            // skip nulls and tombstones.
-            if (e != null && e.key != null) {
-                this.put(e.key, e.value);
+            if (e != null) {
+                e.dist = 0;
+                place(e, hash(e.key));
             }
         }
+        size = oldSize;
     }
 
     public void printStats() {
+        int maxDist = 0;
+        for (var e : table) {
+            if (e != null && e.dist > maxDist) {
+                maxDist = e.dist;
+            }
+        }
         System.out.println("Size: " + size);
         System.out.println("Capacity: " + table.length);
-
+        System.out.println("Longest probe: " + maxDist);
     }
 
 
     /**
-     * An entry in our table. Note that we'll use an entry with key==null to
-     * indicate a deleted entry (what the text called DEL; also called tombstones).
-     *
-     * TODO: What adjustments do Bubba's ideas suggest here?
+     * An entry in our table. dist is the number of slots between where this
+     * entry lives and where its hash says it should live.
      */
     private class Entry {
         K key;
         V value;
+        int dist;
 
-        Entry(K k, V v) {
+        Entry(K k, V v, int d) {
             this.key = k;
             this.value = v;
+            this.dist = d;
+        }
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final Entry[] t = table;
+        private final int expectedModCount = modCount;
+        private int idx = -1;
+
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            while (idx < t.length - 1) {
+                if (t[++idx] != null) {
+                    return true;
+                }
+            }
+            idx = t.length;
+            return false;
+        }
+
+        @Override
+        public K key() {
+            return t[idx].key;
+        }
+
+        @Override
+        public V value() {
+            return t[idx].value;
         }
     }
 }
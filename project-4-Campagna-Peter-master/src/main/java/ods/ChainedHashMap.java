@@ -1,14 +1,68 @@
 package ods;
 
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
 
+/**
+ * A hash table that resolves collisions by chaining. Each bucket is an
+ * ArrayList of entries. The number of buckets is a power of two, and a
+ * key's bucket is picked by masking the output of a pluggable Hasher.
+ *
+ * Every entry remembers its key's hash. Lookups compare that before calling
+ * equals(), and resizing moves entries by it without ever calling
+ * hashCode() or equals() again.
+ *
+ * A bucket that grows past TREEIFY_THRESHOLD entries, which takes a bad
+ * hashCode() or a client deliberately feeding us colliding keys, is turned
+ * into an AVLMap, so lookups in it are O(log n) rather than a linear scan.
+ * This only happens if all of the bucket's keys are of one Comparable class
+ * (whose compareTo() agrees with equals()). The tree goes back to a list once
+ * it shrinks to UNTREEIFY_THRESHOLD entries.
+ *
+ * In incremental mode, growing the table doesn't move every entry at once.
+ * The old bucket array is kept around, and each put or remove moves a few
+ * more of its buckets into the new one. Until it's empty, lookups check both.
+ *
+ * getAll() and putAll() hash a block of BATCH keys before touching any
+ * buckets, and getAll() then fetches every key's bucket before searching any
+ * of them, so that the cache misses on the buckets overlap.
+ */
 public class ChainedHashMap<K, V> implements Map<K, V> {
     private static final int DEFAULT_CAPACITY = 256;
     private static final double DEFAULT_LOADFACTOR = 1.0;
+    // how many old buckets each put/remove migrates during an incremental resize
+    private static final int MIGRATE_STEP = 4;
+    // bucket sizes at which we switch to a tree and back. The gap keeps a
+    // bucket from flipping back and forth on alternating puts and removes.
+    private static final int TREEIFY_THRESHOLD = 8;
+    private static final int UNTREEIFY_THRESHOLD = 6;
+    // how many keys getAll/putAll hash ahead of searching
+    private static final int BATCH = 32;
+    // how many buckets a parallel bulk operation leaves to one task
+    private static final int PARALLEL_LEAF = 1 << 10;
 
-    private ArrayList<Entry>[] table;
+    private ArrayList<Entry<K, V>>[] table;
+    // trees[i] is null unless bucket i has been treeified, in which case its
+    // entries live in the tree (keyed by their keys) and table[i] is empty.
+    private Tree[] trees;
     private double loadFactor;
     private int size;
+    private Hasher<K> hasher;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
+
+    private boolean incremental;
+    // the buckets being migrated away from, or null if no resize is in
+    // progress. Buckets below migrateIdx have already been moved.
+    private ArrayList<Entry<K, V>>[] oldTable;
+    private Tree[] oldTrees;
+    private int migrateIdx;
 
     // This is typical in Java when you have several constructor parameters
     // with defaults. Other lanugages handle this differently...
@@ -16,10 +70,24 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
         this(DEFAULT_CAPACITY);
     }
 
-    // The actual constructor
     public ChainedHashMap(int initialCapacity) {
+        this(initialCapacity, false);
+    }
+
+    public ChainedHashMap(int initialCapacity, boolean incremental) {
+        this(initialCapacity, incremental, Hasher.murmur());
+    }
+
+    public ChainedHashMap(Hasher<K> hasher) {
+        this(DEFAULT_CAPACITY, false, hasher);
+    }
+
+    // The actual constructor
+    public ChainedHashMap(int initialCapacity, boolean incremental, Hasher<K> hasher) {
         clear(initialCapacity);
         loadFactor = DEFAULT_LOADFACTOR;
+        this.incremental = incremental;
+        this.hasher = hasher;
     }
 
 
@@ -30,23 +98,31 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
      */
     @Override
     public V put(K key, V value) {
-        var bucket = table[hash(key)];
-        // search the bucket for this key
-        for (var e : bucket) {
-            if (e.key.equals(key)) {
-                var v = e.value;
-                e.value = value;
-                // no size change; return the old value
-                return v;
-            }
+        return put(key, value, hasher.hash(key));
+    }
+
+    // put, for a key whose hash has already been computed
+    private V put(K key, V value, int h) {
+        migrate();
+        // search for this key, in the old buckets too if it hasn't moved yet
+        var e = find(table, trees, key, h);
+        if (e == null && oldTable != null) {
+            e = find(oldTable, oldTrees, key, h);
+        }
+        if (e != null) {
+            var v = e.value;
+            e.value = value;
+            // no size change; return the old value
+            return v;
         }
         // we didn't find this key. append new entry to the bucket
-        bucket.add(new Entry(key, value));
+        add(new Entry<>(key, value, h));
         size++;
+        modCount++;
 
         // check if we need to resize
         if (table.length * loadFactor < size) {
-            rehash(table.length * 2);
+            resize(table.length * 2);
         }
         return null;
     }
@@ -58,11 +134,49 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
      */
     @Override
     public V remove(K key) {
-        var bucket = table[hash(key)];
+        migrate();
+        int h = hasher.hash(key);
+        V val = remove(table, trees, key, h);
+        if (val == null && oldTable != null) {
+            val = remove(oldTable, oldTrees, key, h);
+        }
+        return val;
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private V remove(ArrayList<Entry<K, V>>[] t, Tree[] tr, K key, int h) {
+        int b = h & (t.length - 1);
+        if (tr[b] != null) {
+            var e = treeGet(tr[b], key);
+            if (e == null) {
+                return null;
+            }
+            tr[b].remove((Comparable) key);
+            size--;
+            modCount++;
+            if (tr[b].size() <= UNTREEIFY_THRESHOLD) {
+                untreeify(t, tr, b);
+            }
+            return e.value;
+        }
+        var e = removeFrom(t[b], key, h);
+        if (e == null) {
+            return null;
+        }
+        size--;
+        modCount++;
+        return e.value;
+    }
+
+    /**
+     * Take key's entry out of a list bucket.
+     * @return the entry, or null if key wasn't there.
+     */
+    static <K, V> Entry<K, V> removeFrom(ArrayList<Entry<K, V>> bucket, K key, int h) {
         int bLast = bucket.size() - 1;
         for (int i = 0; i < bucket.size(); ++i) {
             var e = bucket.get(i);
-            if (e.key.equals(key)) {
+            if (e.hash == h && e.key.equals(key)) {
                 // swap last element into this spot to make
                 // removal cheaper
                 if (i < bLast) {
@@ -70,10 +184,9 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
                 }
                 // now remove the last entry in the bucket. Should be cheap.
                 bucket.remove(bLast);
-                return e.value;
+                return e;
             }
         }
-        // the key was not found. Return null
         return null;
     }
 
@@ -84,15 +197,176 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
      */
     @Override
     public V get(K key) {
-        var bucket = table[hash(key)];
+        int h = hasher.hash(key);
+        var e = find(table, trees, key, h);
+        if (e == null && oldTable != null) {
+            e = find(oldTable, oldTrees, key, h);
+        }
+        return e == null ? null : e.value;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void getAll(K[] keys, V[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out is shorter than keys");
+        }
+        // with a resize in progress a miss has to check the old buckets too,
+        // which isn't worth batching
+        if (oldTable != null) {
+            Map.super.getAll(keys, out);
+            return;
+        }
+        int n = Math.min(keys.length, BATCH);
+        var hs = new int[n];
+        var buckets = new ArrayList[n];
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int end = Math.min(start + BATCH, keys.length);
+            for (int i = start; i < end; ++i) {
+                hs[i - start] = hasher.hash(keys[i]);
+            }
+            for (int i = start; i < end; ++i) {
+                buckets[i - start] = table[hs[i - start] & (table.length - 1)];
+            }
+            for (int i = start; i < end; ++i) {
+                int h = hs[i - start];
+                // an empty list is a miss, unless the bucket is a tree
+                Entry<K, V> e = buckets[i - start].isEmpty() && trees[h & (table.length - 1)] == null ? null
+                        : find(table, trees, keys[i], h);
+                out[i] = e == null ? null : e.value;
+            }
+        }
+    }
+
+    /**
+     * Grows the table once, up front, to fit the whole batch (assuming its
+     * keys are all new), then puts the keys a block at a time with their
+     * hashes computed ahead.
+     */
+    @Override
+    public void putAll(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        int cap = table.length;
+        while (cap * loadFactor < size + keys.length && cap < 1 << 30) {
+            cap *= 2;
+        }
+        if (cap > table.length) {
+            resize(cap);
+        }
+        var hs = new int[Math.min(keys.length, BATCH)];
+        for (int start = 0; start < keys.length; start += BATCH) {
+            int end = Math.min(start + BATCH, keys.length);
+            for (int i = start; i < end; ++i) {
+                hs[i - start] = hasher.hash(keys[i]);
+            }
+            for (int i = start; i < end; ++i) {
+                put(keys[i], values[i], hs[i - start]);
+            }
+        }
+    }
+
+    /**
+     * Search the bucket of t that key hashes to. t and tr are either the
+     * current table and trees or the old ones during a resize. h is
+     * hasher.hash(key).
+     */
+    private Entry<K, V> find(ArrayList<Entry<K, V>>[] t, Tree[] tr, K key, int h) {
+        int i = h & (t.length - 1);
+        if (tr[i] != null) {
+            return treeGet(tr[i], key);
+        }
+        return findIn(t[i], key, h);
+    }
+
+    /**
+     * Search a list bucket for key, whose hash is h.
+     */
+    static <K, V> Entry<K, V> findIn(ArrayList<Entry<K, V>> bucket, K key, int h) {
         for (var e: bucket) {
-            if (e.key.equals(key)) {
-                return e.value;
+            // only call equals() when the full hashes agree
+            if (e.hash == h && e.key.equals(key)) {
+                return e;
             }
         }
         return null;
     }
 
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private Entry<K, V> treeGet(Tree tree, K key) {
+        // all the keys in a tree are of one class, so a key of any other
+        // class can't be in there (and may not even be comparable to them)
+        if (key.getClass() != tree.keyClass) {
+            return null;
+        }
+        return (Entry<K, V>) tree.get((Comparable) key);
+    }
+
+    /**
+     * Put e into its bucket of the current table, treeifying the bucket if
+     * this makes it too long. e's key must not already be in the table.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void add(Entry<K, V> e) {
+        int i = e.hash & (table.length - 1);
+        var tree = trees[i];
+        if (tree != null) {
+            if (e.key.getClass() == tree.keyClass) {
+                tree.put((Comparable) e.key, e);
+                return;
+            }
+            // a key of some other class can't go in the tree, so back to a list
+            untreeify(table, trees, i);
+        }
+        table[i].add(e);
+        if (table[i].size() > TREEIFY_THRESHOLD) {
+            treeify(i);
+        }
+    }
+
+    /**
+     * Move bucket i of the current table into a tree, provided its keys all
+     * share one Comparable class.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private void treeify(int i) {
+        var bucket = table[i];
+        var cls = bucket.get(0).key.getClass();
+        if (!Comparable.class.isAssignableFrom(cls)) {
+            return;
+        }
+        for (var e : bucket) {
+            if (e.key.getClass() != cls) {
+                return;
+            }
+        }
+        var tree = new Tree(cls);
+        for (var e : bucket) {
+            tree.put((Comparable) e.key, e);
+        }
+        bucket.clear();
+        trees[i] = tree;
+    }
+
+    private void untreeify(ArrayList<Entry<K, V>>[] t, Tree[] tr, int i) {
+        t[i].addAll(entries(tr[i]));
+        tr[i] = null;
+    }
+
+    /**
+     * All of the entries in a bucket's tree, in key order.
+     */
+    @SuppressWarnings("unchecked")
+    private ArrayList<Entry<K, V>> entries(Tree tree) {
+        var list = new ArrayList<Entry<K, V>>(tree.size());
+        var cur = tree.cursor();
+        while (cur.advance()) {
+            list.add((Entry<K, V>) cur.value());
+        }
+        return list;
+    }
+
 
     /**
      * @param key
@@ -126,10 +400,97 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
         return size;
     }
 
+    /**
+     * Walks the buckets in order, skipping empty ones. A treeified bucket is
+     * walked with its tree's own cursor. A resize in progress is finished
+     * first, so there's only the one table to walk.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        finishMigration();
+        return new Cursor();
+    }
+
+    /**
+     * Call action on every entry, from the common ForkJoinPool's threads,
+     * each taking a range of buckets. The same as
+     * LinearProbedHashMap.parallelForEach().
+     */
+    public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+        parallel((k, v) -> {
+            action.accept(k, v);
+            return null;
+        }, null, null);
+    }
+
+    /**
+     * The same as LinearProbedHashMap.parallelReduce().
+     */
+    public <U> U parallelReduce(BiFunction<? super K, ? super V, ? extends U> transformer,
+            BinaryOperator<U> reducer) {
+        return parallel(transformer, reducer, null);
+    }
+
+    /**
+     * The same as LinearProbedHashMap.parallelSearch().
+     */
+    public <U> U parallelSearch(BiFunction<? super K, ? super V, ? extends U> fn) {
+        var found = new AtomicReference<U>();
+        parallel(fn, null, found);
+        return found.get();
+    }
+
+    private <U> U parallel(BiFunction<? super K, ? super V, ? extends U> fn, BinaryOperator<U> reducer,
+            AtomicReference<U> found) {
+        finishMigration();
+        return slotTable().parallel(fn, reducer, found, PARALLEL_LEAF);
+    }
+
+    /**
+     * A Spliterator over the entries that splits by ranges of buckets,
+     * otherwise the same as LinearProbedHashMap.spliterator().
+     */
+    public Spliterator<java.util.Map.Entry<K, V>> spliterator() {
+        finishMigration();
+        return slotTable().spliterator(size);
+    }
+
+    // The bucket array as it is now, a treeified bucket's entries taken
+    // from its tree.
+    private SlotTable<K, V> slotTable() {
+        var t = table;
+        var tr = trees;
+        return new SlotTable<>() {
+            @Override
+            int length() {
+                return t.length;
+            }
+
+            @Override
+            boolean visit(int b, BiPredicate<? super K, ? super V> action) {
+                for (var e : tr[b] != null ? entries(tr[b]) : t[b]) {
+                    if (!action.test(e.key, e.value)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            int modCount() {
+                return modCount;
+            }
+        };
+    }
+
     public void print() {
+        finishMigration();
         for (int i = 0; i < table.length; ++i) {
             System.out.printf("bucket %d: ", i);
-            for (Entry e : table[i]) {
+            if (trees[i] != null) {
+                System.out.print("(tree) ");
+            }
+            for (Entry<K, V> e : trees[i] != null ? entries(trees[i]) : table[i]) {
                 System.out.print("(" + e.key + ", " + e.value + ") ");
             }
             System.out.println();
@@ -137,23 +498,65 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
     }
 
     /**
-     * @param key
-     * @return int
+     * @param cap
+     */
+    private void clear(int cap) {
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        table = newTable(cap);
+        trees = newTrees(cap);
+        size = 0;
+        modCount++;
+        oldTable = null;
+        oldTrees = null;
+    }
+
+    /**
+     * Resize the table, either all at once or, in incremental mode, by
+     * setting up a migration that later operations carry out.
+     * @param newCap
      */
-    private int hash(K key) {
-        return Math.abs(key.hashCode() % table.length);
+    private void resize(int newCap) {
+        finishMigration();
+        modCount++;
+        if (!incremental) {
+            rehash(newCap);
+            return;
+        }
+        oldTable = table;
+        oldTrees = trees;
+        migrateIdx = 0;
+        table = newTable(newCap);
+        trees = newTrees(newCap);
     }
 
     /**
-     * @param cap
+     * Move up to MIGRATE_STEP buckets from the old table into the new one.
      */
-    @SuppressWarnings("unchecked")
-    private void clear(int cap) {
-        table = new ArrayList[cap];
-        for (int i = 0; i < table.length; ++i) {
-            table[i] = new ArrayList<>();
+    private void migrate() {
+        if (oldTable == null) {
+            return;
+        }
+        int end = Math.min(migrateIdx + MIGRATE_STEP, oldTable.length);
+        for (; migrateIdx < end; ++migrateIdx) {
+            if (oldTrees[migrateIdx] != null) {
+                untreeify(oldTable, oldTrees, migrateIdx);
+            }
+            for (var e : oldTable[migrateIdx]) {
+                add(e);
+            }
+            oldTable[migrateIdx].clear();
+        }
+        if (migrateIdx == oldTable.length) {
+            oldTable = null;
+            oldTrees = null;
+        }
+    }
+
+    private void finishMigration() {
+        while (oldTable != null) {
+            migrate();
         }
-        size = 0;
     }
 
     /**
@@ -161,22 +564,107 @@ public class ChainedHashMap<K, V> implements Map<K, V> {
      */
     private void rehash(int newCap) {
         var oldTable = table;
-        clear(newCap);
-        // move each entry from oldTable into the new one
-        for (var bucket: oldTable) {
-            for (var e: bucket) {
-                this.put(e.key, e.value);
+        var oldTrees = trees;
+        table = newTable(newCap);
+        trees = newTrees(newCap);
+        // move each entry from oldTable into the new one. The keys are
+        // already known to be distinct, so there's nothing to search for.
+        for (int i = 0; i < oldTable.length; ++i) {
+            for (var e: oldTrees[i] != null ? entries(oldTrees[i]) : oldTable[i]) {
+                add(e);
             }
         }
     }
 
-    private class Entry {
+    // cap empty buckets. Java can't make an array of a generic type, so
+    // this is the one place that makes a raw one and casts it.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayList<Entry<K, V>>[] newTable(int cap) {
+        ArrayList<Entry<K, V>>[] t = new ArrayList[cap];
+        for (int i = 0; i < t.length; ++i) {
+            t[i] = new ArrayList<>();
+        }
+        return t;
+    }
+
+    private Tree[] newTrees(int cap) {
+        return new Tree[cap];
+    }
+
+    // Package-private, along with findIn() and removeFrom(), so that
+    // ConcurrentChainedHashMap can use the same buckets.
+    static final class Entry<K, V> {
         K key;
         V value;
+        // hasher.hash(key), so we never have to recompute it
+        final int hash;
 
-        Entry(K k, V v) {
+        Entry(K k, V v, int h) {
             this.key = k;
             this.value = v;
+            this.hash = h;
+        }
+    }
+
+    // A treeified bucket: an AVLMap from each key to its entry. It keeps the
+    // one class that all of its keys are, so that checking a key against it
+    // doesn't take a trip down the tree.
+    @SuppressWarnings("rawtypes")
+    private static final class Tree extends AVLMap {
+        final Class<?> keyClass;
+
+        Tree(Class<?> keyClass) {
+            this.keyClass = keyClass;
+        }
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final ArrayList<Entry<K, V>>[] t = table;
+        private final Tree[] tr = trees;
+        private final int expectedModCount = modCount;
+        // the bucket we're in, and our place in its list (or its tree)
+        private int b = -1;
+        private int i;
+        @SuppressWarnings("rawtypes")
+        private MapCursor treeCursor;
+        private Entry<K, V> cur;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            while (true) {
+                if (treeCursor != null) {
+                    if (treeCursor.advance()) {
+                        cur = (Entry<K, V>) treeCursor.value();
+                        return true;
+                    }
+                    treeCursor = null;
+                } else if (b >= 0 && i + 1 < t[b].size()) {
+                    cur = t[b].get(++i);
+                    return true;
+                }
+                if (b == t.length - 1) {
+                    return false;
+                }
+                b++;
+                i = -1;
+                if (tr[b] != null) {
+                    treeCursor = tr[b].cursor();
+                }
+            }
+        }
+
+        @Override
+        public K key() {
+            return cur.key;
+        }
+
+        @Override
+        public V value() {
+            return cur.value;
         }
     }
 }
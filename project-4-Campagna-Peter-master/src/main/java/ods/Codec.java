@@ -0,0 +1,129 @@
+package ods;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts values of type T to and from a fixed number of bytes, so that
+ * they can be stored off the heap (see OffHeapHashMap).
+ *
+ * write() must always write exactly width() bytes, and must write the same
+ * bytes for values that are equal(). The off-heap maps compare keys by
+ * their bytes, without decoding them.
+ *
+ * @param <T> the type being encoded.
+ */
+public interface Codec<T> {
+
+    /**
+     * @return the number of bytes every value takes.
+     */
+    int width();
+
+    /**
+     * Encode value into buf at the given (absolute) index. buf's position
+     * is not changed.
+     */
+    void write(ByteBuffer buf, int index, T value);
+
+    /**
+     * Decode the value stored in buf at the given (absolute) index.
+     */
+    T read(ByteBuffer buf, int index);
+
+    static Codec<Long> longs() {
+        return new Codec<>() {
+            @Override
+            public int width() {
+                return 8;
+            }
+
+            @Override
+            public void write(ByteBuffer buf, int index, Long value) {
+                buf.putLong(index, value);
+            }
+
+            @Override
+            public Long read(ByteBuffer buf, int index) {
+                return buf.getLong(index);
+            }
+        };
+    }
+
+    static Codec<Integer> ints() {
+        return new Codec<>() {
+            @Override
+            public int width() {
+                return 4;
+            }
+
+            @Override
+            public void write(ByteBuffer buf, int index, Integer value) {
+                buf.putInt(index, value);
+            }
+
+            @Override
+            public Integer read(ByteBuffer buf, int index) {
+                return buf.getInt(index);
+            }
+        };
+    }
+
+    static Codec<Double> doubles() {
+        return new Codec<>() {
+            @Override
+            public int width() {
+                return 8;
+            }
+
+            @Override
+            public void write(ByteBuffer buf, int index, Double value) {
+                // the raw bits, so that equal Doubles (including NaNs) encode the same
+                buf.putLong(index, Double.doubleToLongBits(value));
+            }
+
+            @Override
+            public Double read(ByteBuffer buf, int index) {
+                return Double.longBitsToDouble(buf.getLong(index));
+            }
+        };
+    }
+
+    /**
+     * Strings of up to maxBytes bytes of UTF-8, stored as a 2-byte length
+     * followed by the bytes and zero padding. Writing a longer string throws
+     * IllegalArgumentException.
+     */
+    static Codec<String> strings(int maxBytes) {
+        if (maxBytes < 0 || maxBytes > 0xFFFF) {
+            throw new IllegalArgumentException("maxBytes must be between 0 and 65535");
+        }
+        return new Codec<>() {
+            @Override
+            public int width() {
+                return 2 + maxBytes;
+            }
+
+            @Override
+            public void write(ByteBuffer buf, int index, String value) {
+                var bytes = value.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("string is longer than " + maxBytes + " bytes");
+                }
+                buf.putShort(index, (short) bytes.length);
+                for (int i = 0; i < maxBytes; ++i) {
+                    buf.put(index + 2 + i, i < bytes.length ? bytes[i] : 0);
+                }
+            }
+
+            @Override
+            public String read(ByteBuffer buf, int index) {
+                var bytes = new byte[buf.getShort(index) & 0xFFFF];
+                for (int i = 0; i < bytes.length; ++i) {
+                    bytes[i] = buf.get(index + 2 + i);
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+}
@@ -0,0 +1,364 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * A thread-safe version of ChainedHashMap, built from the same buckets: lists
+ * of ChainedHashMap.Entry, each caching its key's hash. The bucket array is
+ * split into lock stripes, bucket i being guarded by lock i & (stripes - 1).
+ * The bucket and stripe counts are both powers of two, and keys are spread
+ * with a Hasher, as in ChainedHashMap. Readers take the read lock of their
+ * stripe, so lookups in a stripe run in parallel, and writers only block the
+ * one stripe they touch.
+ *
+ * The entry count is a LongAdder, so there is no single counter for every
+ * put to fight over. When the whole map passes the load factor, the table is
+ * doubled under every stripe's write lock. How the keys are spread over the
+ * stripes doesn't matter, so a pile of colliding keys can't make it grow.
+ * The table only ever changes while all the locks are held, so holding any
+ * one of them pins it in place.
+ *
+ * Unlike ChainedHashMap, buckets are never turned into trees.
+ */
+public class ConcurrentChainedHashMap<K, V> implements Map<K, V> {
+    private static final int DEFAULT_CAPACITY = 256;
+    private static final double DEFAULT_LOADFACTOR = 1.0;
+    private static final int DEFAULT_STRIPES = 64;
+
+    private volatile ArrayList<ChainedHashMap.Entry<K, V>>[] table;
+    private final ReentrantReadWriteLock[] locks;
+    // the number of entries; only changed under some stripe's write lock
+    private final LongAdder count = new LongAdder();
+    private double loadFactor;
+    private final Hasher<K> hasher;
+
+    public ConcurrentChainedHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ConcurrentChainedHashMap(int initialCapacity) {
+        this(initialCapacity, DEFAULT_STRIPES);
+    }
+
+    public ConcurrentChainedHashMap(int initialCapacity, int stripes) {
+        this(initialCapacity, stripes, Hasher.murmur());
+    }
+
+    // The actual constructor. Both counts are rounded up to powers of two and
+    // there are at least as many buckets as stripes, so every stripe owns the
+    // same number of buckets.
+    public ConcurrentChainedHashMap(int initialCapacity, int stripes, Hasher<K> hasher) {
+        stripes = powerOfTwo(stripes);
+        this.hasher = hasher;
+        locks = new ReentrantReadWriteLock[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        loadFactor = DEFAULT_LOADFACTOR;
+        table = newTable(roundUp(initialCapacity));
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int h = hasher.hash(key);
+        int idx = lock(h, true);
+        int stripe = idx & (locks.length - 1);
+        var t = table;
+        boolean grow;
+        try {
+            var e = ChainedHashMap.findIn(t[idx], key, h);
+            if (e != null) {
+                var v = e.value;
+                e.value = value;
+                return v;
+            }
+            grow = add(t, idx, key, value, h);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+        if (grow) {
+            resize(t);
+        }
+        return null;
+    }
+
+    /**
+     * Atomically add key with value if it is not already present.
+     * @return the value already associated with key, or null if we added it.
+     */
+    public V putIfAbsent(K key, V value) {
+        int h = hasher.hash(key);
+        int idx = lock(h, true);
+        int stripe = idx & (locks.length - 1);
+        var t = table;
+        boolean grow;
+        try {
+            var e = ChainedHashMap.findIn(t[idx], key, h);
+            if (e != null) {
+                return e.value;
+            }
+            grow = add(t, idx, key, value, h);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+        if (grow) {
+            resize(t);
+        }
+        return null;
+    }
+
+    /**
+     * If key is not present, compute its value with fn and add it, all while
+     * holding the stripe lock. fn should be short and must not touch this map.
+     * A null result adds nothing.
+     * @return the current (existing or computed) value for key.
+     */
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> fn) {
+        int h = hasher.hash(key);
+        int idx = lock(h, true);
+        int stripe = idx & (locks.length - 1);
+        var t = table;
+        V value;
+        boolean grow;
+        try {
+            var e = ChainedHashMap.findIn(t[idx], key, h);
+            if (e != null) {
+                return e.value;
+            }
+            value = fn.apply(key);
+            if (value == null) {
+                return null;
+            }
+            grow = add(t, idx, key, value, h);
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+        if (grow) {
+            resize(t);
+        }
+        return value;
+    }
+
+    @Override
+    public V remove(K key) {
+        int h = hasher.hash(key);
+        int idx = lock(h, true);
+        int stripe = idx & (locks.length - 1);
+        try {
+            var e = ChainedHashMap.removeFrom(table[idx], key, h);
+            if (e == null) {
+                return null;
+            }
+            count.decrement();
+            return e.value;
+        } finally {
+            locks[stripe].writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V get(K key) {
+        int h = hasher.hash(key);
+        int idx = lock(h, false);
+        try {
+            var e = ChainedHashMap.findIn(table[idx], key, h);
+            return e == null ? null : e.value;
+        } finally {
+            locks[idx & (locks.length - 1)].readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public void clear() {
+        lockAll();
+        try {
+            table = newTable(roundUp(DEFAULT_CAPACITY));
+            count.reset();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * The entry count. It's only a snapshot if other threads are writing.
+     */
+    @Override
+    public int size() {
+        return count.intValue();
+    }
+
+    // the number of buckets, for the tests
+    int capacity() {
+        return table.length;
+    }
+
+    /**
+     * A weakly consistent cursor: it never throws
+     * ConcurrentModificationException, and may or may not see changes made
+     * while it runs. Each bucket is copied out under its stripe's read lock,
+     * so the entries of one bucket are seen as they were at one moment. A
+     * resize leaves the old buckets alone, so a cursor that started before
+     * it just carries on through the old table.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Lock the stripe that the bucket for hash h belongs to, and return the
+     * bucket index. If the table was replaced while we waited for the lock,
+     * the index may be stale, so let go and try again.
+     */
+    private int lock(int h, boolean write) {
+        while (true) {
+            var t = table;
+            int idx = h & (t.length - 1);
+            var lock = locks[idx & (locks.length - 1)];
+            if (write) {
+                lock.writeLock().lock();
+            } else {
+                lock.readLock().lock();
+            }
+            if (t == table) {
+                return idx;
+            }
+            if (write) {
+                lock.writeLock().unlock();
+            } else {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Add a new entry to bucket idx of t, whose stripe we hold the write
+     * lock of.
+     * @return true if the map is now too full for t.
+     */
+    private boolean add(ArrayList<ChainedHashMap.Entry<K, V>>[] t, int idx, K key, V value, int h) {
+        t[idx].add(new ChainedHashMap.Entry<>(key, value, h));
+        count.increment();
+        return count.sum() > t.length * loadFactor;
+    }
+
+    /**
+     * Double the table, unless someone else already replaced old. Locks are
+     * always taken in stripe order, so two resizing threads can't deadlock.
+     */
+    private void resize(ArrayList<ChainedHashMap.Entry<K, V>>[] old) {
+        lockAll();
+        try {
+            if (table != old) {
+                return;
+            }
+            var newTable = newTable(old.length * 2);
+            // keys are distinct, so entries go straight into their new
+            // bucket, found from their cached hashes
+            for (var bucket : old) {
+                for (var e : bucket) {
+                    newTable[e.hash & (newTable.length - 1)].add(e);
+                }
+            }
+            table = newTable;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    private void lockAll() {
+        for (var lock : locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; --i) {
+            locks[i].writeLock().unlock();
+        }
+    }
+
+    private int roundUp(int cap) {
+        return Math.max(locks.length, powerOfTwo(cap));
+    }
+
+    private static int powerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private ArrayList<ChainedHashMap.Entry<K, V>>[] newTable(int cap) {
+        ArrayList<ChainedHashMap.Entry<K, V>>[] t = new ArrayList[cap];
+        for (int i = 0; i < t.length; ++i) {
+            t[i] = new ArrayList<>();
+        }
+        return t;
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final ArrayList<ChainedHashMap.Entry<K, V>>[] t = table;
+        private int b = -1;
+        // the current bucket's keys and values, interleaved. Reused from
+        // bucket to bucket.
+        private Object[] buf = new Object[8];
+        private int n;
+        private int i;
+
+        @Override
+        public boolean advance() {
+            i += 2;
+            while (i >= n) {
+                if (b == t.length - 1) {
+                    return false;
+                }
+                b++;
+                load();
+                i = 0;
+            }
+            return true;
+        }
+
+        private void load() {
+            var lock = locks[b & (locks.length - 1)].readLock();
+            lock.lock();
+            try {
+                var bucket = t[b];
+                if (buf.length < 2 * bucket.size()) {
+                    buf = new Object[4 * bucket.size()];
+                }
+                n = 0;
+                for (var e : bucket) {
+                    buf[n++] = e.key;
+                    buf[n++] = e.value;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K key() {
+            return (K) buf[i];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V value() {
+            return (V) buf[i + 1];
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ods;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Allocation and release of the direct (off-heap) buffers behind the
+ * OffHeap maps, and saving them to a file.
+ *
+ * A ByteBuffer is indexed by int, so a big table is split into chunks of
+ * 2^chunkShift slots each. The GC never looks inside a direct buffer, but it
+ * also only frees one when the buffer object itself is collected, which might
+ * be a long time coming for a buffer that lives in the old generation. free()
+ * releases the memory right away, through the cleaner that the JDK keeps
+ * for every direct buffer.
+ */
+final class DirectMemory {
+    // the largest chunk we hand out, in bytes
+    static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    // sun.misc.Unsafe.invokeCleaner(ByteBuffer), or null if we can't get at it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            var cls = Class.forName("sun.misc.Unsafe");
+            var field = cls.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = cls.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // no luck; the memory goes back whenever the GC gets to it
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private DirectMemory() {
+    }
+
+    /**
+     * The largest chunkShift for which a chunk of slotBytes-byte slots stays
+     * within MAX_CHUNK_BYTES.
+     */
+    static int chunkShift(int slotBytes) {
+        return 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / slotBytes);
+    }
+
+    /**
+     * Zeroed, native-order buffers holding slots slots of slotBytes bytes.
+     * slots must be a power of two.
+     */
+    static ByteBuffer[] allocate(int slots, int slotBytes, int chunkShift) {
+        int perChunk = Math.min(slots, 1 << chunkShift);
+        var chunks = new ByteBuffer[slots / perChunk];
+        for (int i = 0; i < chunks.length; ++i) {
+            chunks[i] = ByteBuffer.allocateDirect(perChunk * slotBytes).order(ByteOrder.nativeOrder());
+        }
+        return chunks;
+    }
+
+    static void free(ByteBuffer[] chunks) {
+        if (chunks == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        for (var b : chunks) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, b);
+            } catch (ReflectiveOperationException e) {
+                // leave it for the GC
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write header and then every chunk to path, replacing whatever is there.
+     * The bytes go to a temporary file in the same directory, which is then
+     * renamed over path. Truncating path in place instead would pull the
+     * pages out from under any map open()ed from it, including the one
+     * being saved.
+     */
+    static void writeFile(Path path, ByteBuffer header, ByteBuffer[] chunks) throws IOException {
+        var dir = path.toAbsolutePath().getParent();
+        var tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        try {
+            try (var ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                writeFully(ch, header);
+                for (var b : chunks) {
+                    writeFully(ch, b.duplicate().clear());
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // only still there if something went wrong
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            ch.write(b);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ods;
+
+/**
+ * Turns a key into the int that a hash table uses to pick its slot. Our
+ * tables have power-of-two capacities and keep only the low bits of this
+ * value (hash &amp; (capacity - 1)), which is much cheaper than a modulus. The
+ * catch is that the low bits must be well mixed. Integer.hashCode() is the
+ * integer itself, so sequential keys would otherwise fill one contiguous run of
+ * slots.
+ *
+ * murmur() is the default for every map that takes a Hasher. Any lambda
+ * will do if you know something better about your keys.
+ *
+ * @param <K> the type of the keys being hashed.
+ */
+@FunctionalInterface
+public interface Hasher<K> {
+
+    int hash(K key);
+
+    /**
+     * The key's own hashCode(), unmixed. Only a good choice if the hash codes
+     * are already random-looking in their low bits.
+     */
+    static <K> Hasher<K> identity() {
+        return key -> key.hashCode();
+    }
+
+    /**
+     * hashCode() run through the MurmurHash3 finalizer, which spreads every
+     * input bit over every output bit.
+     */
+    static <K> Hasher<K> murmur() {
+        return key -> mix(key.hashCode());
+    }
+
+    /**
+     * Fibonacci (multiplicative) hashing: multiply by 2^32 / phi. The good
+     * bits of a product are the high ones, so they are folded down onto the
+     * low bits that the table keeps. Cheaper than murmur, a little less
+     * thorough.
+     */
+    static <K> Hasher<K> fibonacci() {
+        return key -> {
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        };
+    }
+
+    /**
+     * The 32-bit MurmurHash3 finalizer (fmix32).
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * The 64-bit MurmurHash3 finalizer (fmix64), folded down to 32 bits.
+     */
+    static int mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE53F4A63L;
+        h ^= h >>> 33;
+        return (int) (h ^ (h >>> 32));
+    }
+}
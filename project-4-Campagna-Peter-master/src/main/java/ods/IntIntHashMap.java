@@ -0,0 +1,244 @@
+package ods;
+
+/**
+ * A linear-probed hash table from int keys to int values. This follows
+ * LinearProbedHashMap (same load factor, growth and shrink policy), but keys
+ * and values live in plain int arrays, so nothing is ever boxed.
+ *
+ * Empty and deleted slots are marked with sentinel key values. A map can still
+ * hold those two keys; their entries are simply kept in fields of their own
+ * rather than in the table.
+ *
+ * The capacity is a power of two, and keys are spread with Hasher.mix()
+ * before being masked down to a slot, so runs of sequential keys don't cluster.
+ * A probe steps one slot at a time until it finds the key or an empty slot;
+ * remove() leaves a tombstone, which put() reuses. The table doubles when
+ * the live entries reach the load factor, is rebuilt at the same size when
+ * tombstones push the used slots there, and halves when it drops below a
+ * quarter of it.
+ *
+ * IntObjectHashMap and LongObjectHashMap are the same table with object
+ * values; what's said here goes for them too.
+ */
+public class IntIntHashMap {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final double DEFAULT_LOADFACTOR = 0.5;
+
+    private static final int EMPTY = 0;
+    private static final int DELETED = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    // non-EMPTY slots in the table, i.e., live entries plus tombstones
+    private int used;
+    private double loadFactor;
+    // what get() and remove() return for a missing key
+    private int noEntryValue;
+
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+    private boolean hasDeletedKey;
+    private int deletedKeyValue;
+
+    public IntIntHashMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR);
+    }
+
+    public IntIntHashMap(int initCap) {
+        this(initCap, DEFAULT_LOADFACTOR);
+    }
+
+    public IntIntHashMap(double lf) {
+        this(DEFAULT_CAPACITY, lf);
+    }
+
+    public IntIntHashMap(int initCap, double lf) {
+        this(initCap, lf, 0);
+    }
+
+    public IntIntHashMap(int initCap, double lf, int noEntryValue) {
+        clear(initCap);
+        loadFactor = lf;
+        this.noEntryValue = noEntryValue;
+    }
+
+    /**
+     * Add an entry to this map.
+     * @return the previous value for key, or the no-entry value.
+     */
+    public int put(int key, int value) {
+        if (key == EMPTY || key == DELETED) {
+            return putSpecial(key, value);
+        }
+        int delPos = -1;
+        int idx = hash(key);
+        while (keys[idx] != EMPTY) {
+            if (keys[idx] == DELETED) {
+                if (delPos == -1) {
+                    delPos = idx;
+                }
+            } else if (keys[idx] == key) {
+                int oldVal = values[idx];
+                values[idx] = value;
+                return oldVal;
+            }
+            idx = increment(idx);
+        }
+        if (delPos != -1) {
+            idx = delPos;
+        } else {
+            used++;
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        size++;
+
+        if (size >= loadFactor * keys.length) {
+            rehash(keys.length * 2);
+        } else if (used >= loadFactor * keys.length) {
+            rehash(keys.length);
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * Remove key from the map.
+     * @return the value stored with key, or the no-entry value.
+     */
+    public int remove(int key) {
+        int val;
+        if (key == EMPTY || key == DELETED) {
+            if (!containsKey(key)) {
+                return noEntryValue;
+            }
+            val = get(key);
+            if (key == EMPTY) {
+                hasEmptyKey = false;
+            } else {
+                hasDeletedKey = false;
+            }
+        } else {
+            int idx = find(key);
+            if (idx == -1) {
+                return noEntryValue;
+            }
+            val = values[idx];
+            keys[idx] = DELETED;
+        }
+        size--;
+
+        if (keys.length > DEFAULT_CAPACITY && size < loadFactor * keys.length / 4.0) {
+            rehash(keys.length / 2);
+        }
+        return val;
+    }
+
+    /**
+     * Look up key.
+     * @return the value stored with key, or the no-entry value.
+     */
+    public int get(int key) {
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : noEntryValue;
+        } else if (key == DELETED) {
+            return hasDeletedKey ? deletedKeyValue : noEntryValue;
+        }
+        int idx = find(key);
+        return idx == -1 ? noEntryValue : values[idx];
+    }
+
+    public boolean containsKey(int key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        } else if (key == DELETED) {
+            return hasDeletedKey;
+        }
+        return find(key) != -1;
+    }
+
+    public int noEntryValue() {
+        return noEntryValue;
+    }
+
+    public void clear() {
+        clear(DEFAULT_CAPACITY);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int putSpecial(int key, int value) {
+        int oldVal = get(key);
+        if (!containsKey(key)) {
+            size++;
+        }
+        if (key == EMPTY) {
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+        } else {
+            hasDeletedKey = true;
+            deletedKeyValue = value;
+        }
+        return oldVal;
+    }
+
+    private void clear(int cap) {
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        keys = new int[cap];
+        values = new int[cap];
+        size = 0;
+        used = 0;
+        hasEmptyKey = hasDeletedKey = false;
+    }
+
+    private int find(int key) {
+        int idx = hash(key);
+        while (keys[idx] != EMPTY) {
+            if (keys[idx] == key) {
+                return idx;
+            }
+            idx = increment(idx);
+        }
+        return -1;
+    }
+
+    private int hash(int key) {
+        return Hasher.mix(key) & (keys.length - 1);
+    }
+
+    private int increment(int idx) {
+        return (idx + 1) & (keys.length - 1);
+    }
+
+    private void rehash(int newCap) {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new int[newCap];
+        values = new int[newCap];
+        used = 0;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            // skip empties and tombstones.
+            if (oldKeys[i] != EMPTY && oldKeys[i] != DELETED) {
+                int idx = hash(oldKeys[i]);
+                while (keys[idx] != EMPTY) {
+                    idx = increment(idx);
+                }
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+                used++;
+            }
+        }
+    }
+
+    public void printStats() {
+        System.out.println("Size: " + size);
+        System.out.println("Capacity: " + keys.length);
+    }
+}
@@ -0,0 +1,224 @@
+package ods;
+
+/**
+ * A linear-probed hash table from int keys to object values. The table
+ * works just as IntIntHashMap's does, except that a missing key is reported
+ * as null, as in Map.
+ *
+ * @param <V> the value type associated with our keys.
+ */
+public class IntObjectHashMap<V> {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final double DEFAULT_LOADFACTOR = 0.5;
+
+    private static final int EMPTY = 0;
+    private static final int DELETED = Integer.MIN_VALUE;
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int used;
+    private double loadFactor;
+
+    private boolean hasEmptyKey;
+    private V emptyKeyValue;
+    private boolean hasDeletedKey;
+    private V deletedKeyValue;
+
+    public IntObjectHashMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR);
+    }
+
+    public IntObjectHashMap(int initCap) {
+        this(initCap, DEFAULT_LOADFACTOR);
+    }
+
+    public IntObjectHashMap(double lf) {
+        this(DEFAULT_CAPACITY, lf);
+    }
+
+    public IntObjectHashMap(int initCap, double lf) {
+        clear(initCap);
+        loadFactor = lf;
+    }
+
+    /**
+     * Add an entry to this map.
+     * @return the previous value for key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (key == EMPTY || key == DELETED) {
+            return putSpecial(key, value);
+        }
+        int delPos = -1;
+        int idx = hash(key);
+        while (keys[idx] != EMPTY) {
+            if (keys[idx] == DELETED) {
+                if (delPos == -1) {
+                    delPos = idx;
+                }
+            } else if (keys[idx] == key) {
+                V oldVal = (V) values[idx];
+                values[idx] = value;
+                return oldVal;
+            }
+            idx = increment(idx);
+        }
+        if (delPos != -1) {
+            idx = delPos;
+        } else {
+            used++;
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        size++;
+
+        if (size >= loadFactor * keys.length) {
+            rehash(keys.length * 2);
+        } else if (used >= loadFactor * keys.length) {
+            rehash(keys.length);
+        }
+        return null;
+    }
+
+    /**
+     * Remove key from the map.
+     * @return the value stored with key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        V val;
+        if (key == EMPTY || key == DELETED) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            val = get(key);
+            if (key == EMPTY) {
+                hasEmptyKey = false;
+                emptyKeyValue = null;
+            } else {
+                hasDeletedKey = false;
+                deletedKeyValue = null;
+            }
+        } else {
+            int idx = find(key);
+            if (idx == -1) {
+                return null;
+            }
+            val = (V) values[idx];
+            keys[idx] = DELETED;
+            values[idx] = null;
+        }
+        size--;
+
+        if (keys.length > DEFAULT_CAPACITY && size < loadFactor * keys.length / 4.0) {
+            rehash(keys.length / 2);
+        }
+        return val;
+    }
+
+    /**
+     * Look up key.
+     * @return the value stored with key, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == EMPTY) {
+            return emptyKeyValue;
+        } else if (key == DELETED) {
+            return deletedKeyValue;
+        }
+        int idx = find(key);
+        return idx == -1 ? null : (V) values[idx];
+    }
+
+    public boolean containsKey(int key) {
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        } else if (key == DELETED) {
+            return hasDeletedKey;
+        }
+        return find(key) != -1;
+    }
+
+    public void clear() {
+        clear(DEFAULT_CAPACITY);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private V putSpecial(int key, V value) {
+        V oldVal = get(key);
+        if (!containsKey(key)) {
+            size++;
+        }
+        if (key == EMPTY) {
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+        } else {
+            hasDeletedKey = true;
+            deletedKeyValue = value;
+        }
+        return oldVal;
+    }
+
+    private void clear(int cap) {
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        keys = new int[cap];
+        values = new Object[cap];
+        size = 0;
+        used = 0;
+        hasEmptyKey = hasDeletedKey = false;
+        emptyKeyValue = deletedKeyValue = null;
+    }
+
+    private int find(int key) {
+        int idx = hash(key);
+        while (keys[idx] != EMPTY) {
+            if (keys[idx] == key) {
+                return idx;
+            }
+            idx = increment(idx);
+        }
+        return -1;
+    }
+
+    private int hash(int key) {
+        return Hasher.mix(key) & (keys.length - 1);
+    }
+
+    private int increment(int idx) {
+        return (idx + 1) & (keys.length - 1);
+    }
+
+    private void rehash(int newCap) {
+        var oldKeys = keys;
+        var oldValues = values;
+        keys = new int[newCap];
+        values = new Object[newCap];
+        used = 0;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY && oldKeys[i] != DELETED) {
+                int idx = hash(oldKeys[i]);
+                while (keys[idx] != EMPTY) {
+                    idx = increment(idx);
+                }
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+                used++;
+            }
+        }
+    }
+
+    public void printStats() {
+        System.out.println("Size: " + size);
+        System.out.println("Capacity: " + keys.length);
+    }
+}
@@ -1,19 +1,71 @@
 package ods;
 
-import java.lang.reflect.Array;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
 
 /**
  * A linear-probed hash table, using the strategies from the reading.
  * This code has not been tested well. You may find bugs! Report them,
  * please.
+ *
+ * Rather than an array of Entry objects, the table is laid out as three
+ * parallel arrays: keys, values and the cached hash code of each key. A probe
+ * walks contiguous memory, compares hash codes before calling equals(), and
+ * inserting a new key allocates nothing.
+ *
+ * The capacity is always a power of two, so a slot is picked by masking the
+ * hash rather than dividing. Hashes come from a pluggable Hasher (murmur by
+ * default) and are what the hashes array caches.
+ *
+ * In incremental mode a resize doesn't rebuild the table in one go. The old
+ * arrays are kept alongside the new ones, and each put or remove moves a
+ * few more old slots across, so no single operation pays for the whole copy.
+ * Until the move is finished, lookups check both tables.
+ *
+ * getAll() and putAll() work through a batch in blocks of BATCH keys. All of
+ * a block's hashes are computed before any probing starts, and getAll() then
+ * loads every key's home slot before comparing any of them. Those loads don't
+ * depend on each other, so the CPU can have their cache misses outstanding
+ * at the same time rather than waiting on one after another.
  */
 public class LinearProbedHashMap<K, V> implements Map<K, V> {
     private static final int DEFAULT_CAPACITY = 8;
     private static final double DEFAULT_LOADFACTOR = 0.5;
+    // how many old slots each put/remove migrates during an incremental resize
+    private static final int MIGRATE_STEP = 8;
+    // how many keys getAll/putAll hash ahead of probing
+    private static final int BATCH = 32;
+    // how many slots a parallel bulk operation leaves to one task
+    private static final int PARALLEL_LEAF = 1 << 12;
 
-    private Entry[] table;
+    // marks a deleted slot (what the text called DEL; also called a tombstone).
+    private static final Object DELETED = new Object();
+
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
     private int size;
+    // live entries plus tombstones, i.e., the number of non-null key slots
+    private int used;
     private double loadFactor;
+    private Hasher<K> hasher;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
+
+    private boolean incremental;
+    // the table being migrated away from, or null if no resize is in progress.
+    // Slots below migrateIdx have already been moved.
+    private Object[] oldKeys;
+    private Object[] oldValues;
+    private int[] oldHashes;
+    private int migrateIdx;
 
     public LinearProbedHashMap() {
         this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR);
@@ -28,89 +80,195 @@ public class LinearProbedHashMap<K, V> implements Map<K, V> {
     }
 
     public LinearProbedHashMap(int initCap, double lf) {
+        this(initCap, lf, false);
+    }
+
+    public LinearProbedHashMap(Hasher<K> hasher) {
+        this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR, false, hasher);
+    }
+
+    public LinearProbedHashMap(int initCap, double lf, boolean incremental) {
+        this(initCap, lf, incremental, Hasher.murmur());
+    }
+
+    public LinearProbedHashMap(int initCap, double lf, boolean incremental, Hasher<K> hasher) {
         clear(initCap);
         loadFactor = lf;
+        this.incremental = incremental;
+        this.hasher = hasher;
     }
 
     /**
-     * Implements Map.put. Runs in O(1) expected time. 
+     * Implements Map.put. Runs in O(1) expected time.
      */
     @Override
-     public V put(K key, V value) {
+    public V put(K key, V value) {
+        return put(key, value, hasher.hash(key));
+    }
+
+    // put, for a key whose hash has already been computed
+    @SuppressWarnings("unchecked")
+    private V put(K key, V value, int h) {
+        migrate();
         int delPos = -1;
-        int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key == null && delPos == -1) {
+        int idx = index(h);
+        while (keys[idx] != null) {
+            if (keys[idx] == DELETED) {
                 // this is where we'll put the new entry,
                 // if we decide to
-                delPos = idx;
-            } else if (table[idx].key.equals(key)) {
+                if (delPos == -1) {
+                    delPos = idx;
+                }
+            } else if (hashes[idx] == h && keys[idx].equals(key)) {
                 // found a dup. Update the value and return the original
-                V oldVal = table[idx].value;
-                table[idx].value = value;
+                V oldVal = (V) values[idx];
+                values[idx] = value;
                 return oldVal;
             }
             idx = increment(idx);
         }
+        // the key may not have been migrated yet. If so, update it in place.
+        if (oldKeys != null) {
+            int oldIdx = find(key, h, oldKeys, oldHashes);
+            if (oldIdx != -1) {
+                V oldVal = (V) oldValues[oldIdx];
+                oldValues[oldIdx] = value;
+                return oldVal;
+            }
+        }
         // if we get here, we didn't find a duplicate. We either insert at the
         // first deleted position we found, or at the null that stopped our search.
         if (delPos != -1) {
-            table[delPos].key = key;
-            table[delPos].value = value;
-        }
-        else {
-            table[idx] = new Entry(key, value);
+            idx = delPos;
+        } else {
+            used++;
         }
+        keys[idx] = key;
+        values[idx] = value;
+        hashes[idx] = h;
         size++;
+        modCount++;
 
-        // If we exceed the loadfactor, double the size.
-        if (size >= loadFactor * table.length) {
-            rehash(table.length * 2);
+        // If we exceed the loadfactor, double the size. If it is tombstones
+        // that pushed us over, rebuilding at the same size is enough.
+        if (size >= loadFactor * keys.length) {
+            resize(keys.length * 2);
+        } else if (used >= loadFactor * keys.length) {
+            resize(keys.length);
         }
 
         return null;
     }
 
     /**
-     * Probe until we find this element or hit a null. If we find it, convert to a
-     * DELeted entry (i.e., and Entry with key==null)
+     * Probe until we find this element or hit a null. If we find it, convert the
+     * slot to a DELeted one.
      */
     @Override
+    @SuppressWarnings("unchecked")
     public V remove(K key) {
-        int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key != null && table[idx].key.equals(key)) {
-                // we found this key. Return the associated value, null out
-                // the key and value so the entry becomes a "tombstone", resize,
-                // rehash as necessary.
-                V val = table[idx].value;
-                table[idx].key = null;
-                table[idx].value = null;
-                size--;
-
-                // check to see if we can save some space.
-                if (size < loadFactor * table.length / 4.0) {
-                    rehash(table.length / 2);
-                }
-                return val;
-            }
-            idx = increment(idx);
+        migrate();
+        int h = hasher.hash(key);
+        var ks = keys;
+        var vs = values;
+        int idx = find(key, h, keys, hashes);
+        if (idx == -1 && oldKeys != null) {
+            ks = oldKeys;
+            vs = oldValues;
+            idx = find(key, h, oldKeys, oldHashes);
         }
-        return null;
+        if (idx == -1) {
+            return null;
+        }
+        // we found this key. Return the associated value, mark the slot
+        // as a tombstone, resize, rehash as necessary.
+        V val = (V) vs[idx];
+        ks[idx] = DELETED;
+        vs[idx] = null;
+        size--;
+        modCount++;
+
+        // check to see if we can save some space.
+        if (keys.length > DEFAULT_CAPACITY && size < loadFactor * keys.length / 4.0) {
+            resize(keys.length / 2);
+        }
+        return val;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public V get(K key) {
-        int idx = hash(key);
-        while (table[idx] != null) {
-            if (table[idx].key != null && table[idx].key.equals(key)) {
-                return table[idx].value;
-            }
-            idx = increment(idx);
+        int h = hasher.hash(key);
+        int idx = find(key, h, keys, hashes);
+        if (idx != -1) {
+            return (V) values[idx];
+        } else if (oldKeys != null) {
+            idx = find(key, h, oldKeys, oldHashes);
+            return idx == -1 ? null : (V) oldValues[idx];
         }
         return null;
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public void getAll(K[] ks, V[] out) {
+        if (out.length < ks.length) {
+            throw new IllegalArgumentException("out is shorter than keys");
+        }
+        // with a resize in progress a miss has to check the old table too,
+        // which isn't worth batching
+        if (oldKeys != null) {
+            Map.super.getAll(ks, out);
+            return;
+        }
+        int n = Math.min(ks.length, BATCH);
+        var hs = new int[n];
+        var home = new Object[n];
+        for (int start = 0; start < ks.length; start += BATCH) {
+            int end = Math.min(start + BATCH, ks.length);
+            for (int i = start; i < end; ++i) {
+                hs[i - start] = hasher.hash(ks[i]);
+            }
+            for (int i = start; i < end; ++i) {
+                home[i - start] = keys[index(hs[i - start])];
+            }
+            for (int i = start; i < end; ++i) {
+                // an empty home slot means a miss without probing any further
+                int idx = home[i - start] == null ? -1 : find(ks[i], hs[i - start], keys, hashes);
+                out[i] = idx == -1 ? null : (V) values[idx];
+            }
+        }
+    }
+
+    /**
+     * Grows the table once, up front, to fit the whole batch (assuming its
+     * keys are all new), then puts the keys a block at a time with their
+     * hashes computed ahead.
+     */
+    @Override
+    public void putAll(K[] ks, V[] vs) {
+        if (ks.length != vs.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        int cap = keys.length;
+        while (size + ks.length >= loadFactor * cap && cap < 1 << 30) {
+            cap *= 2;
+        }
+        if (cap > keys.length) {
+            resize(cap);
+        }
+        var hs = new int[Math.min(ks.length, BATCH)];
+        for (int start = 0; start < ks.length; start += BATCH) {
+            int end = Math.min(start + BATCH, ks.length);
+            for (int i = start; i < end; ++i) {
+                hs[i - start] = hasher.hash(ks[i]);
+            }
+            for (int i = start; i < end; ++i) {
+                put(ks[i], vs[i], hs[i - start]);
+            }
+        }
+    }
+
     @Override
     public boolean containsKey(K key) {
         return get(key) != null;
@@ -131,52 +289,278 @@ public class LinearProbedHashMap<K, V> implements Map<K, V> {
         return size;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Walks the slots in order, skipping empty ones and tombstones. A resize
+     * in progress is finished first, so there's only the one table to walk.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        finishMigration();
+        return new Cursor();
+    }
+
+    /**
+     * Call action on every entry, splitting the slot array into ranges that
+     * the common ForkJoinPool works through in parallel. action must be
+     * safe to call from several threads at once, and the map must not be
+     * modified until this returns.
+     */
+    public void parallelForEach(BiConsumer<? super K, ? super V> action) {
+        parallel((k, v) -> {
+            action.accept(k, v);
+            return null;
+        }, null, null);
+    }
+
+    /**
+     * Turn every entry into a U with transformer, in parallel, and combine
+     * the results with reducer, which should be associative. Null results
+     * are left out.
+     * @return the combined result, or null if there were none.
+     */
+    public <U> U parallelReduce(BiFunction<? super K, ? super V, ? extends U> transformer,
+            BinaryOperator<U> reducer) {
+        return parallel(transformer, reducer, null);
+    }
+
+    /**
+     * Apply fn to entries, in parallel, until it returns something other
+     * than null. Once one thread finds a result the others stop early.
+     * @return a non-null result of fn (not necessarily the first in any
+     *         order), or null if there wasn't one.
+     */
+    public <U> U parallelSearch(BiFunction<? super K, ? super V, ? extends U> fn) {
+        var found = new AtomicReference<U>();
+        parallel(fn, null, found);
+        return found.get();
+    }
+
+    private <U> U parallel(BiFunction<? super K, ? super V, ? extends U> fn, BinaryOperator<U> reducer,
+            AtomicReference<U> found) {
+        finishMigration();
+        return slotTable().parallel(fn, reducer, found, PARALLEL_LEAF);
+    }
+
+    /**
+     * A Spliterator over the entries, for use with parallel streams, e.g.
+     * StreamSupport.stream(map.spliterator(), true). It splits by ranges
+     * of the slot array. Each entry is handed out as a new immutable
+     * Map.Entry; parallelForEach() and friends don't have that overhead.
+     */
+    public Spliterator<java.util.Map.Entry<K, V>> spliterator() {
+        finishMigration();
+        return slotTable().spliterator(size);
+    }
+
+    // The slot array as it is now, each slot holding one entry or none.
+    private SlotTable<K, V> slotTable() {
+        var ks = keys;
+        var vs = values;
+        return new SlotTable<>() {
+            @Override
+            int length() {
+                return ks.length;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            boolean visit(int i, BiPredicate<? super K, ? super V> action) {
+                return ks[i] == null || ks[i] == DELETED || action.test((K) ks[i], (V) vs[i]);
+            }
+
+            @Override
+            int modCount() {
+                return modCount;
+            }
+        };
+    }
+
     private void clear(int cap) {
-        table = (Entry[]) Array.newInstance(Entry.class, cap);
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        keys = new Object[cap];
+        values = new Object[cap];
+        hashes = new int[cap];
         size = 0;
+        modCount++;
+        used = 0;
+        oldKeys = null;
+        oldValues = null;
+        oldHashes = null;
     }
 
-    private int hash(K key) {
-        return Math.abs(key.hashCode() % table.length);
+    /**
+     * Return the slot of ks holding key, or -1 if it isn't there. ks and hs
+     * are either the current arrays or the old ones during a resize.
+     */
+    private static int find(Object key, int h, Object[] ks, int[] hs) {
+        int mask = ks.length - 1;
+        int idx = h & mask;
+        while (ks[idx] != null) {
+            // a tombstone never matches, since DELETED has no equal and
+            // its cached hash may be stale
+            if (hs[idx] == h && ks[idx] != DELETED && ks[idx].equals(key)) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int index(int h) {
+        return h & (keys.length - 1);
     }
 
     private int increment(int idx) {
-        idx++;
-        return idx == table.length ? 0 : idx;
+        return (idx + 1) & (keys.length - 1);
+    }
+
+    /**
+     * Resize the table, either all at once or, in incremental mode, by
+     * setting up a migration that later operations carry out.
+     */
+    private void resize(int newCap) {
+        finishMigration();
+        modCount++;
+        if (!incremental) {
+            rehash(newCap);
+            return;
+        }
+        oldKeys = keys;
+        oldValues = values;
+        oldHashes = hashes;
+        migrateIdx = 0;
+        keys = new Object[newCap];
+        values = new Object[newCap];
+        hashes = new int[newCap];
+        used = 0;
+    }
+
+    /**
+     * Move up to MIGRATE_STEP slots of the old table into the new one. A
+     * moved slot becomes a tombstone so the old probe chains stay intact.
+     */
+    private void migrate() {
+        if (oldKeys == null) {
+            return;
+        }
+        int end = Math.min(migrateIdx + MIGRATE_STEP, oldKeys.length);
+        for (; migrateIdx < end; ++migrateIdx) {
+            var k = oldKeys[migrateIdx];
+            if (k != null && k != DELETED) {
+                insertFresh(k, oldValues[migrateIdx], oldHashes[migrateIdx]);
+                oldKeys[migrateIdx] = DELETED;
+                oldValues[migrateIdx] = null;
+            }
+        }
+        if (migrateIdx == oldKeys.length) {
+            oldKeys = null;
+            oldValues = null;
+            oldHashes = null;
+        }
+    }
+
+    private void finishMigration() {
+        while (oldKeys != null) {
+            migrate();
+        }
+    }
+
+    /**
+     * Drop a key that is known not to be in the table into the first free
+     * slot of its probe sequence. Doesn't touch size.
+     */
+    private void insertFresh(Object key, Object value, int h) {
+        int idx = index(h);
+        while (keys[idx] != null && keys[idx] != DELETED) {
+            idx = increment(idx);
+        }
+        if (keys[idx] == null) {
+            used++;
+        }
+        keys[idx] = key;
+        values[idx] = value;
+        hashes[idx] = h;
     }
 
     private void rehash(int newCap) {
-        // make a new table of the new size, then iterate over the old
-        // table and reinsert each entry.
-        var oldTable = table;
+        // make a new table of the new size, then walk the old arrays and
+        // drop each live entry into the first free slot. Keys are distinct
+        // and hashes are cached, so there's no need to go through put().
+        var oldKeys = keys;
+        var oldValues = values;
+        var oldHashes = hashes;
+        int oldSize = size;
         clear(newCap);
-        for (var e : oldTable) {
+        for (int i = 0; i < oldKeys.length; ++i) {
             // skip nulls and tombstones.
-            if (e != null && e.key != null) {
-                this.put(e.key, e.value);
+            if (oldKeys[i] != null && oldKeys[i] != DELETED) {
+                insertFresh(oldKeys[i], oldValues[i], oldHashes[i]);
             }
         }
+        size = oldSize;
+    }
+
+    /**
+     * Save a copy of this map to path as an OffHeapHashMap snapshot, using
+     * the given codecs to turn keys and values into bytes. The entries are
+     * put one by one into a fresh OffHeapHashMap of the same capacity, so
+     * they are rehashed: tombstones are gone, and an entry may not end up in
+     * the same slot as here. The file can only be read back with
+     * OffHeapHashMap.open(), given the same codecs and this map's Hasher,
+     * which maps it and answers lookups straight away.
+     */
+    @SuppressWarnings("unchecked")
+    public void writeSnapshot(Path path, Codec<K> keyCodec, Codec<V> valueCodec) throws IOException {
+        finishMigration();
+        // same capacity and load factor, so the off-heap copy never resizes
+        try (var copy = new OffHeapHashMap<>(keys.length, loadFactor, keyCodec, valueCodec, hasher)) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != null && keys[i] != DELETED) {
+                    copy.put((K) keys[i], (V) values[i]);
+                }
+            }
+            copy.writeTo(path);
+        }
     }
 
     public void printStats() {
         System.out.println("Size: " + size);
-        System.out.println("Capacity: " + table.length);
-
+        System.out.println("Capacity: " + keys.length);
+        System.out.println("Tombstones: " + (used - size));
     }
 
+    private class Cursor implements MapCursor<K, V> {
+        private final Object[] ks = keys;
+        private final Object[] vs = values;
+        private final int expectedModCount = modCount;
+        private int idx = -1;
 
-    /**
-     * An entry in our table. Note that we'll use an entry with key==null to
-     * indicate a deleted entry (what the text called DEL; also called tombstones).
-     */
-    private class Entry {
-        K key;
-        V value;
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            while (idx < ks.length - 1) {
+                idx++;
+                if (ks[idx] != null && ks[idx] != DELETED) {
+                    return true;
+                }
+            }
+            idx = ks.length;
+            return false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public K key() {
+            return (K) ks[idx];
+        }
 
-        Entry(K k, V v) {
-            this.key = k;
-            this.value = v;
+        @Override
+        @SuppressWarnings("unchecked")
+        public V value() {
+            return (V) vs[idx];
         }
     }
 }
@@ -0,0 +1,264 @@
+package ods;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free skip list that any number of threads may use at once. This is
+ * the lock-free skip list from Herlihy and Shavit, "The Art of Multiprocessor
+ * Programming", chapter 14.
+ *
+ * Each next pointer is an immutable Link holding the successor and a "marked"
+ * bit, and links are swapped with compare-and-set through a VarHandle on the
+ * node's link array. A node is removed by first marking its links from the
+ * top level down; marking level 0 is the moment it leaves the set. Marked
+ * nodes are unlinked later by whichever thread walks past them. find() never
+ * writes, so readers don't slow down writers.
+ */
+public class LockFreeSkipListSet<T extends Comparable<T>> implements Set<T> {
+    private static final int MAX_HEIGHT = 32;
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Link[].class);
+
+    private final Node<T> sentinel;
+    // the tallest level ever used, so searches needn't start at MAX_HEIGHT
+    private final AtomicInteger height;
+    private final LongAdder size;
+    private final Comparator<T> comp;
+
+    public LockFreeSkipListSet(Comparator<T> c) {
+        sentinel = new Node<>(null, MAX_HEIGHT - 1);
+        for (int i = 0; i < MAX_HEIGHT; ++i) {
+            sentinel.next[i] = new Link<>(null, false);
+        }
+        height = new AtomicInteger(0);
+        size = new LongAdder();
+        comp = c;
+    }
+
+    public LockFreeSkipListSet() {
+        this(Comparator.<T>naturalOrder());
+    }
+
+    /**
+     * Fill in the predecessor and successor of val at every level, unlinking
+     * any marked nodes we pass along the way. If an unlink fails, something
+     * changed under us, so start over.
+     * @return true if val is in the set.
+     */
+    private boolean findPreds(T val, Node<T>[] preds, Node<T>[] succs) {
+        retry:
+        while (true) {
+            Node<T> pred = sentinel;
+            for (int level = height.get(); level >= 0; --level) {
+                var predLink = next(pred, level);
+                var cur = predLink.node;
+                while (cur != null) {
+                    var curLink = next(cur, level);
+                    // cur is being removed. Help out by unlinking it, unless
+                    // pred is on its way out too.
+                    while (curLink.marked) {
+                        var snip = new Link<>(curLink.node, false);
+                        if (predLink.marked || !NEXT.compareAndSet(pred.next, level, predLink, snip)) {
+                            continue retry;
+                        }
+                        predLink = snip;
+                        cur = snip.node;
+                        if (cur == null) {
+                            break;
+                        }
+                        curLink = next(cur, level);
+                    }
+                    if (cur == null || comp.compare(cur.data, val) >= 0) {
+                        break;
+                    }
+                    pred = cur;
+                    predLink = curLink;
+                    cur = curLink.node;
+                }
+                preds[level] = pred;
+                succs[level] = cur;
+            }
+            return succs[0] != null && comp.compare(succs[0].data, val) == 0;
+        }
+    }
+
+    /**
+     * Flip 32 coins at once and count the tails before the first head, just
+     * like SkipListSet. Each thread has its own generator.
+     */
+    private int pickHeight() {
+        int coinFlips = ThreadLocalRandom.current().nextInt();
+        return Math.min(Integer.numberOfTrailingZeros(coinFlips), MAX_HEIGHT - 1);
+    }
+
+    @Override
+    public void add(T val) {
+        int top = pickHeight();
+        raiseHeight(top);
+        Node<T>[] preds = newNodeArray();
+        Node<T>[] succs = newNodeArray();
+        while (true) {
+            // don't insert duplicates.
+            if (findPreds(val, preds, succs)) {
+                return;
+            }
+            var newNode = new Node<>(val, top);
+            for (int i = 0; i <= top; ++i) {
+                newNode.next[i] = new Link<>(succs[i], false);
+            }
+            // linking in at level 0 is what puts val in the set
+            if (!casNext(preds[0], 0, succs[0], newNode)) {
+                continue;
+            }
+            size.increment();
+            // now the express lanes. These are only hints for searching, so
+            // if the node is removed meanwhile we just stop.
+            for (int i = 1; i <= top; ++i) {
+                while (true) {
+                    var link = next(newNode, i);
+                    if (link.marked) {
+                        return;
+                    }
+                    if (link.node != succs[i]
+                            && !NEXT.compareAndSet(newNode.next, i, link, new Link<>(succs[i], false))) {
+                        continue;
+                    }
+                    if (casNext(preds[i], i, succs[i], newNode)) {
+                        break;
+                    }
+                    if (!findPreds(val, preds, succs) || succs[0] != newNode) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * Wait-free search: skip over marked nodes instead of unlinking them.
+     */
+    @Override
+    public T find(T val) {
+        Node<T> pred = sentinel;
+        Node<T> cur = null;
+        for (int level = height.get(); level >= 0; --level) {
+            cur = next(pred, level).node;
+            while (cur != null) {
+                var link = next(cur, level);
+                if (link.marked) {
+                    cur = link.node;
+                } else if (comp.compare(cur.data, val) < 0) {
+                    pred = cur;
+                    cur = link.node;
+                } else {
+                    break;
+                }
+            }
+        }
+        if (cur != null && comp.compare(cur.data, val) == 0) {
+            return cur.data;
+        }
+        return null;
+    }
+
+    @Override
+    public T remove(T val) {
+        Node<T>[] preds = newNodeArray();
+        Node<T>[] succs = newNodeArray();
+        if (!findPreds(val, preds, succs)) {
+            return null;
+        }
+        var victim = succs[0];
+        // mark the express lanes from the top down...
+        for (int i = victim.height(); i > 0; --i) {
+            var link = next(victim, i);
+            while (!link.marked) {
+                NEXT.compareAndSet(victim.next, i, link, new Link<>(link.node, true));
+                link = next(victim, i);
+            }
+        }
+        // ...then level 0. Whoever marks it owns the removal.
+        while (true) {
+            var link = next(victim, 0);
+            if (link.marked) {
+                return null;
+            }
+            if (NEXT.compareAndSet(victim.next, 0, link, new Link<>(link.node, true))) {
+                size.decrement();
+                // unlink it physically
+                findPreds(val, preds, succs);
+                return victim.data;
+            }
+        }
+    }
+
+    /**
+     * The number of elements. Exact when no other thread is writing.
+     */
+    @Override
+    public int size() {
+        return size.intValue();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    private boolean casNext(Node<T> n, int level, Node<T> expect, Node<T> update) {
+        var link = next(n, level);
+        return link.node == expect && !link.marked
+                && NEXT.compareAndSet(n.next, level, link, new Link<>(update, false));
+    }
+
+    @SuppressWarnings("unchecked")
+    private Link<T> next(Node<T> n, int level) {
+        return (Link<T>) NEXT.getVolatile(n.next, level);
+    }
+
+    private void raiseHeight(int h) {
+        int cur = height.get();
+        while (h > cur && !height.compareAndSet(cur, h)) {
+            cur = height.get();
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<T>[] newNodeArray() {
+        return (Node<T>[]) new Node[MAX_HEIGHT];
+    }
+
+    /**
+     * A next pointer plus the "this node is being removed" mark. Links
+     * never change; a new one is swapped in instead.
+     */
+    private static final class Link<T> {
+        final Node<T> node;
+        final boolean marked;
+
+        Link(Node<T> node, boolean marked) {
+            this.node = node;
+            this.marked = marked;
+        }
+    }
+
+    private static final class Node<T> {
+        final T data;
+        final Link<T>[] next;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Node(T d, int height) {
+            this.data = d;
+            next = (Link<T>[]) new Link[height + 1];
+        }
+
+        int height() {
+            return next.length - 1;
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package ods;
 
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
 /**
  * A scaled-down version of the Java map interface. This supplies only the fundamental
  * map operations.
@@ -57,4 +61,93 @@ public interface Map<K, V> {
      * @return
      */
     int size();
+
+    /**
+     * A cursor over every entry in the map, in no particular order unless
+     * the map has one. See MapCursor.
+     */
+    MapCursor<K, V> cursor();
+
+    /**
+     * Call action on every key and value in the map.
+     */
+    default void forEach(BiConsumer<? super K, ? super V> action) {
+        var c = cursor();
+        while (c.advance()) {
+            action.accept(c.key(), c.value());
+        }
+    }
+
+    /**
+     * @return an iterator over the keys, in the same order as cursor().
+     */
+    default Iterator<K> keyIterator() {
+        return cursorIterator(true);
+    }
+
+    /**
+     * @return an iterator over the values, in the same order as cursor().
+     */
+    default Iterator<V> valueIterator() {
+        return cursorIterator(false);
+    }
+
+    // An Iterator needs to know whether there is a next element before it
+    // is asked for it, so this advances the cursor one step early.
+    @SuppressWarnings("unchecked")
+    private <T> Iterator<T> cursorIterator(boolean keys) {
+        var c = cursor();
+        return new Iterator<>() {
+            // whether c is on an entry that next() hasn't returned yet
+            private boolean ready;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready && !done) {
+                    ready = c.advance();
+                    done = !ready;
+                }
+                return ready;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return (T) (keys ? c.key() : c.value());
+            }
+        };
+    }
+
+    /**
+     * Look up a batch of keys, storing the value of keys[i] (or null) in
+     * out[i]. The default just calls get() on each; implementations can
+     * override it to work on the whole batch at once.
+     * @throws IllegalArgumentException if out is shorter than keys.
+     */
+    default void getAll(K[] keys, V[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out is shorter than keys");
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            out[i] = get(keys[i]);
+        }
+    }
+
+    /**
+     * Put values[i] under keys[i] for each i. If a key appears more than once,
+     * the last value for it wins, just as with a loop of put()s.
+     * @throws IllegalArgumentException if keys and values differ in length.
+     */
+    default void putAll(K[] keys, V[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        for (int i = 0; i < keys.length; ++i) {
+            put(keys[i], values[i]);
+        }
+    }
 }
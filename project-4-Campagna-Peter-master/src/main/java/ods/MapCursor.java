@@ -0,0 +1,42 @@
+package ods;
+
+/**
+ * A cursor over the entries of a Map. Unlike an Iterator of Map.Entry, it
+ * hands out the key and value of the current entry directly, so walking a
+ * map doesn't allocate an object per entry.
+ *
+ * <pre>
+ * var c = map.cursor();
+ * while (c.advance()) {
+ *     use(c.key(), c.value());
+ * }
+ * </pre>
+ *
+ * Unless the map says otherwise, it must not be structurally modified
+ * (keys added or removed) while a cursor is in use. A cursor that notices
+ * this throws ConcurrentModificationException from advance(), but that's
+ * only a best effort and shouldn't be relied on.
+ *
+ * @param <K> the type of the search keys.
+ * @param <V> the value type associated with our keys.
+ */
+public interface MapCursor<K, V> {
+
+    /**
+     * Move on to the next entry. A new cursor sits before the first one.
+     * @return true if there is one, false if the cursor has run off the end.
+     */
+    boolean advance();
+
+    /**
+     * @return the key of the current entry. Only valid after advance() has
+     *         returned true.
+     */
+    K key();
+
+    /**
+     * @return the value of the current entry. Only valid after advance() has
+     *         returned true.
+     */
+    V value();
+}
@@ -0,0 +1,453 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ConcurrentModificationException;
+
+/**
+ * A linear-probed hash table whose table lives outside the Java heap, in
+ * direct ByteBuffers. Keys and values are stored as fixed-width bytes,
+ * encoded and decoded with a Codec. However many entries the map holds, the
+ * GC only sees a handful of small objects, so it never has to scan or copy
+ * the table.
+ *
+ * Each slot holds a state byte (empty, full or deleted), the key's hash, the
+ * key and the value. A probe compares hashes first and then the encoded key
+ * bytes, so a lookup decodes nothing but the value it returns. That is why
+ * the key codec has to encode equal keys to equal bytes.
+ *
+ * Null keys and values aren't supported. The map isn't thread-safe, even
+ * for concurrent gets, since every operation encodes its key into a shared
+ * scratch buffer.
+ *
+ * The memory is only given back when the map is closed (or, failing that,
+ * when the GC collects it), so close it when you're done. Any use of a closed
+ * map throws IllegalStateException.
+ *
+ * writeTo() saves the table to a file exactly as it is laid out in memory,
+ * behind a small header, and open() maps such a file straight back in: a
+ * reopened map answers lookups from the mapped pages, decoding only the
+ * values it returns. The mapping is private (copy-on-write), so the reopened
+ * map can be modified but its changes never reach the file. Its first resize
+ * copies it into ordinary direct memory. Slots record their keys' hashes, so
+ * open() has to be given the same codecs and Hasher that wrote the file.
+ * LinearProbedHashMap.writeSnapshot() writes this format too.
+ *
+ * @param <K> the type of the search keys.
+ * @param <V> the value type associated with our keys.
+ */
+public class OffHeapHashMap<K, V> implements Map<K, V>, AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final double DEFAULT_LOADFACTOR = 0.5;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    // slot states
+    private static final byte EMPTY = 0;
+    private static final byte FULL = 1;
+    private static final byte DELETED = 2;
+
+    // where things are within a slot. The key starts at KEY, and the value
+    // right after it.
+    private static final int HASH = 4;
+    private static final int KEY = 8;
+
+    // snapshot files start with a HEADER_BYTES header, then the slots
+    private static final int MAGIC = 0x4F445348; // "ODSH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    private final Codec<K> keyCodec;
+    private final Codec<V> valueCodec;
+    private final int keyWidth;
+    private final int slotBytes;
+    private final int chunkShift;
+    private final int chunkMask;
+    // the key being looked for, encoded
+    private final ByteBuffer scratch;
+
+    // slot i is at byte (i & chunkMask) * slotBytes of chunks[i >>> chunkShift]
+    private ByteBuffer[] chunks;
+    // number of slots, always a power of two
+    private int capacity;
+    private int size;
+    // live entries plus tombstones, i.e., the number of non-EMPTY slots
+    private int used;
+    private double loadFactor;
+    private Hasher<K> hasher;
+    // bumped whenever keys come or go, so that cursors can tell they're stale
+    private int modCount;
+
+    public OffHeapHashMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(DEFAULT_CAPACITY, keyCodec, valueCodec);
+    }
+
+    public OffHeapHashMap(int initCap, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(initCap, DEFAULT_LOADFACTOR, keyCodec, valueCodec);
+    }
+
+    public OffHeapHashMap(int initCap, double lf, Codec<K> keyCodec, Codec<V> valueCodec) {
+        this(initCap, lf, keyCodec, valueCodec, Hasher.murmur());
+    }
+
+    public OffHeapHashMap(int initCap, double lf, Codec<K> keyCodec, Codec<V> valueCodec, Hasher<K> hasher) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        this.hasher = hasher;
+        keyWidth = keyCodec.width();
+        slotBytes = KEY + keyWidth + valueCodec.width();
+        chunkShift = DirectMemory.chunkShift(slotBytes);
+        chunkMask = (1 << chunkShift) - 1;
+        scratch = ByteBuffer.allocate(keyWidth).order(ByteOrder.nativeOrder());
+        loadFactor = lf;
+        clear(initCap);
+    }
+
+    /**
+     * Implements Map.put. Runs in O(1) expected time.
+     */
+    @Override
+    public V put(K key, V value) {
+        ensureOpen();
+        int h = hasher.hash(key);
+        keyCodec.write(scratch, 0, key);
+        int delPos = -1;
+        int idx = h & (capacity - 1);
+        byte st;
+        while ((st = state(idx)) != EMPTY) {
+            if (st == DELETED) {
+                if (delPos == -1) {
+                    delPos = idx;
+                }
+            } else if (matches(idx, h)) {
+                var b = chunk(idx);
+                int off = offset(idx) + KEY + keyWidth;
+                V oldVal = valueCodec.read(b, off);
+                valueCodec.write(b, off, value);
+                return oldVal;
+            }
+            idx = increment(idx);
+        }
+        if (delPos != -1) {
+            idx = delPos;
+        } else {
+            used++;
+        }
+        var b = chunk(idx);
+        int off = offset(idx);
+        b.put(off, FULL);
+        b.putInt(off + HASH, h);
+        keyCodec.write(b, off + KEY, key);
+        valueCodec.write(b, off + KEY + keyWidth, value);
+        size++;
+        modCount++;
+
+        if (size >= loadFactor * capacity) {
+            grow();
+        } else if (used >= loadFactor * capacity) {
+            rehash(capacity);
+        }
+        return null;
+    }
+
+    /**
+     * Implements Map.remove. Leaves a tombstone in the slot.
+     */
+    @Override
+    public V remove(K key) {
+        ensureOpen();
+        int idx = find(key);
+        if (idx == -1) {
+            return null;
+        }
+        var b = chunk(idx);
+        int off = offset(idx);
+        V val = valueCodec.read(b, off + KEY + keyWidth);
+        b.put(off, DELETED);
+        size--;
+        modCount++;
+
+        if (capacity > DEFAULT_CAPACITY && size < loadFactor * capacity / 4.0) {
+            rehash(capacity / 2);
+        }
+        return val;
+    }
+
+    @Override
+    public V get(K key) {
+        ensureOpen();
+        int idx = find(key);
+        return idx == -1 ? null : valueCodec.read(chunk(idx), offset(idx) + KEY + keyWidth);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        ensureOpen();
+        return find(key) != -1;
+    }
+
+    @Override
+    public void clear() {
+        ensureOpen();
+        clear(DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Walks the slots in order, skipping empty ones and tombstones. Nothing
+     * is decoded until key() or value() is called, and they decode afresh
+     * every time.
+     */
+    @Override
+    public MapCursor<K, V> cursor() {
+        ensureOpen();
+        return new Cursor();
+    }
+
+    /**
+     * Give the table's memory back. The map can't be used afterwards.
+     * Closing a closed map does nothing.
+     */
+    @Override
+    public void close() {
+        DirectMemory.free(chunks);
+        chunks = null;
+        modCount++;
+    }
+
+    /**
+     * Save this map to path, replacing whatever is there. It's fine for path
+     * to be the file this map was open()ed from.
+     */
+    public void writeTo(Path path) throws IOException {
+        ensureOpen();
+        var header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+        header.putInt(keyWidth).putInt(slotBytes);
+        header.putInt(capacity).putInt(size).putInt(used);
+        header.putDouble(loadFactor);
+        header.clear();
+        DirectMemory.writeFile(path, header, chunks);
+    }
+
+    public static <K, V> OffHeapHashMap<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec)
+            throws IOException {
+        return open(path, keyCodec, valueCodec, Hasher.murmur());
+    }
+
+    /**
+     * Map a file written by writeTo() back in. Lookups read the file's pages
+     * directly; nothing is rehashed.
+     * @throws IOException if path can't be read, isn't one of our files, or
+     *         was written with codecs of different widths.
+     */
+    public static <K, V> OffHeapHashMap<K, V> open(Path path, Codec<K> keyCodec, Codec<V> valueCodec,
+            Hasher<K> hasher) throws IOException {
+        // a private mapping needs a channel opened for writing, even though
+        // nothing is ever written through it
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                continue;
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not an OffHeapHashMap snapshot");
+            }
+            if ((header.getInt() == 1) != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)) {
+                throw new IOException(path + " was written with a different byte order");
+            }
+            var map = new OffHeapHashMap<>(1, DEFAULT_LOADFACTOR, keyCodec, valueCodec, hasher);
+            if (header.getInt() != map.keyWidth || header.getInt() != map.slotBytes) {
+                map.close();
+                throw new IOException(path + " was written with different codecs");
+            }
+            int cap = header.getInt();
+            if (Integer.bitCount(cap) != 1 || cap > MAX_CAPACITY
+                    || ch.size() != HEADER_BYTES + (long) cap * map.slotBytes) {
+                map.close();
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            map.size = header.getInt();
+            map.used = header.getInt();
+            map.loadFactor = header.getDouble();
+
+            int chunkBytes = Math.min(cap, 1 << map.chunkShift) * map.slotBytes;
+            var mapped = new ByteBuffer[(int) ((long) cap * map.slotBytes / chunkBytes)];
+            for (int i = 0; i < mapped.length; ++i) {
+                mapped[i] = ch.map(FileChannel.MapMode.PRIVATE, HEADER_BYTES + (long) i * chunkBytes, chunkBytes)
+                        .order(ByteOrder.nativeOrder());
+            }
+            DirectMemory.free(map.chunks);
+            map.chunks = mapped;
+            map.capacity = cap;
+            return map;
+        }
+    }
+
+    private void ensureOpen() {
+        if (chunks == null) {
+            throw new IllegalStateException("map is closed");
+        }
+    }
+
+    private void clear(int cap) {
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        DirectMemory.free(chunks);
+        chunks = DirectMemory.allocate(cap, slotBytes, chunkShift);
+        capacity = cap;
+        size = 0;
+        modCount++;
+        used = 0;
+    }
+
+    /**
+     * @return the slot holding key, or -1.
+     */
+    private int find(K key) {
+        int h = hasher.hash(key);
+        keyCodec.write(scratch, 0, key);
+        int idx = h & (capacity - 1);
+        byte st;
+        while ((st = state(idx)) != EMPTY) {
+            if (st == FULL && matches(idx, h)) {
+                return idx;
+            }
+            idx = increment(idx);
+        }
+        return -1;
+    }
+
+    /**
+     * Does the full slot idx hold the key in scratch, whose hash is h?
+     */
+    private boolean matches(int idx, int h) {
+        var b = chunk(idx);
+        int off = offset(idx);
+        if (b.getInt(off + HASH) != h) {
+            return false;
+        }
+        off += KEY;
+        // eight bytes at a time while we can
+        int i = 0;
+        for (; i + 8 <= keyWidth; i += 8) {
+            if (b.getLong(off + i) != scratch.getLong(i)) {
+                return false;
+            }
+        }
+        for (; i < keyWidth; ++i) {
+            if (b.get(off + i) != scratch.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ByteBuffer chunk(int idx) {
+        return chunks[idx >>> chunkShift];
+    }
+
+    private int offset(int idx) {
+        return (idx & chunkMask) * slotBytes;
+    }
+
+    private byte state(int idx) {
+        return chunk(idx).get(offset(idx));
+    }
+
+    private int increment(int idx) {
+        return (idx + 1) & (capacity - 1);
+    }
+
+    // Double the table. Checked before doubling, since 2 * MAX_CAPACITY
+    // would overflow.
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("map is full: it already has the most slots it can, " + MAX_CAPACITY);
+        }
+        rehash(capacity * 2);
+    }
+
+    private void rehash(int newCap) {
+        var oldChunks = chunks;
+        int oldCap = capacity;
+        chunks = DirectMemory.allocate(newCap, slotBytes, chunkShift);
+        capacity = newCap;
+        used = 0;
+        for (int i = 0; i < oldCap; ++i) {
+            var src = oldChunks[i >>> chunkShift];
+            int srcOff = (i & chunkMask) * slotBytes;
+            // skip empties and tombstones.
+            if (src.get(srcOff) == FULL) {
+                // the cached hash says where it goes; no need to decode anything
+                int idx = src.getInt(srcOff + HASH) & (capacity - 1);
+                while (state(idx) != EMPTY) {
+                    idx = increment(idx);
+                }
+                copySlot(src, srcOff, chunk(idx), offset(idx));
+                used++;
+            }
+        }
+        DirectMemory.free(oldChunks);
+    }
+
+    private void copySlot(ByteBuffer src, int srcOff, ByteBuffer dst, int dstOff) {
+        int i = 0;
+        for (; i + 8 <= slotBytes; i += 8) {
+            dst.putLong(dstOff + i, src.getLong(srcOff + i));
+        }
+        for (; i < slotBytes; ++i) {
+            dst.put(dstOff + i, src.get(srcOff + i));
+        }
+    }
+
+    private class Cursor implements MapCursor<K, V> {
+        private final int expectedModCount = modCount;
+        private int idx = -1;
+
+        @Override
+        public boolean advance() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            while (idx < capacity - 1) {
+                if (state(++idx) == FULL) {
+                    return true;
+                }
+            }
+            idx = capacity;
+            return false;
+        }
+
+        @Override
+        public K key() {
+            return keyCodec.read(chunk(idx), offset(idx) + KEY);
+        }
+
+        @Override
+        public V value() {
+            return valueCodec.read(chunk(idx), offset(idx) + KEY + keyWidth);
+        }
+    }
+
+    public void printStats() {
+        System.out.println("Size: " + size);
+        System.out.println("Capacity: " + capacity);
+        System.out.println("Tombstones: " + (used - size));
+        System.out.println("Off-heap bytes: " + (long) capacity * slotBytes);
+    }
+}
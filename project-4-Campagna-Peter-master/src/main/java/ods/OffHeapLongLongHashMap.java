@@ -0,0 +1,385 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A linear-probed hash table from long keys to long values whose table lives
+ * outside the Java heap, in direct ByteBuffers. However many entries it holds,
+ * the GC sees only a handful of small objects, so it never has to scan or
+ * copy the table.
+ *
+ * Otherwise this is IntIntHashMap with longs: a slot is a key followed by its
+ * value, empty and deleted slots are marked with sentinel keys, and entries
+ * for those two keys are kept in fields of their own.
+ *
+ * The memory is only given back when the map is closed (or, failing that,
+ * when the GC collects it), so close it when you're done. Any use of a closed
+ * map throws IllegalStateException.
+ *
+ * writeTo() saves the table to a file exactly as it is laid out in memory,
+ * behind a small header. open() maps such a file straight back in, so a
+ * reopened map answers lookups from the mapped pages without rebuilding
+ * anything. The mapping is private (copy-on-write): the reopened map can be
+ * modified, but its changes never reach the file. Its first resize copies it
+ * into ordinary direct memory.
+ */
+public class OffHeapLongLongHashMap implements AutoCloseable {
+    private static final int DEFAULT_CAPACITY = 8;
+    private static final double DEFAULT_LOADFACTOR = 0.5;
+    // 2^30 slots, 16GB
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = Long.MIN_VALUE;
+
+    // a key followed by its value
+    private static final int SLOT_BYTES = 16;
+    private static final int CHUNK_SHIFT = DirectMemory.chunkShift(SLOT_BYTES);
+    private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+    // snapshot files start with a HEADER_BYTES header, then the slots
+    private static final int MAGIC = 0x4F44534C; // "ODSL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    // slot i is at byte (i & CHUNK_MASK) * SLOT_BYTES of chunks[i >>> CHUNK_SHIFT]
+    private ByteBuffer[] chunks;
+    // number of slots, always a power of two
+    private int capacity;
+    private int size;
+    // non-EMPTY slots in the table, i.e., live entries plus tombstones
+    private int used;
+    private double loadFactor;
+    // what get() and remove() return for a missing key
+    private long noEntryValue;
+
+    private boolean hasEmptyKey;
+    private long emptyKeyValue;
+    private boolean hasDeletedKey;
+    private long deletedKeyValue;
+
+    public OffHeapLongLongHashMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_LOADFACTOR);
+    }
+
+    public OffHeapLongLongHashMap(int initCap) {
+        this(initCap, DEFAULT_LOADFACTOR);
+    }
+
+    public OffHeapLongLongHashMap(double lf) {
+        this(DEFAULT_CAPACITY, lf);
+    }
+
+    public OffHeapLongLongHashMap(int initCap, double lf) {
+        this(initCap, lf, 0);
+    }
+
+    public OffHeapLongLongHashMap(int initCap, double lf, long noEntryValue) {
+        loadFactor = lf;
+        this.noEntryValue = noEntryValue;
+        clear(initCap);
+    }
+
+    /**
+     * Add an entry to this map.
+     * @return the previous value for key, or the no-entry value.
+     */
+    public long put(long key, long value) {
+        ensureOpen();
+        if (key == EMPTY || key == DELETED) {
+            return putSpecial(key, value);
+        }
+        int delPos = -1;
+        int idx = hash(key);
+        long k;
+        while ((k = key(idx)) != EMPTY) {
+            if (k == DELETED) {
+                if (delPos == -1) {
+                    delPos = idx;
+                }
+            } else if (k == key) {
+                long oldVal = value(idx);
+                setValue(idx, value);
+                return oldVal;
+            }
+            idx = increment(idx);
+        }
+        if (delPos != -1) {
+            idx = delPos;
+        } else {
+            used++;
+        }
+        setKey(idx, key);
+        setValue(idx, value);
+        size++;
+
+        if (size >= loadFactor * capacity) {
+            grow();
+        } else if (used >= loadFactor * capacity) {
+            rehash(capacity);
+        }
+        return noEntryValue;
+    }
+
+    /**
+     * Remove key from the map.
+     * @return the value stored with key, or the no-entry value.
+     */
+    public long remove(long key) {
+        ensureOpen();
+        long val;
+        if (key == EMPTY || key == DELETED) {
+            if (!containsKey(key)) {
+                return noEntryValue;
+            }
+            val = get(key);
+            if (key == EMPTY) {
+                hasEmptyKey = false;
+            } else {
+                hasDeletedKey = false;
+            }
+        } else {
+            int idx = find(key);
+            if (idx == -1) {
+                return noEntryValue;
+            }
+            val = value(idx);
+            setKey(idx, DELETED);
+        }
+        size--;
+
+        if (capacity > DEFAULT_CAPACITY && size < loadFactor * capacity / 4.0) {
+            rehash(capacity / 2);
+        }
+        return val;
+    }
+
+    /**
+     * Look up key.
+     * @return the value stored with key, or the no-entry value.
+     */
+    public long get(long key) {
+        ensureOpen();
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : noEntryValue;
+        } else if (key == DELETED) {
+            return hasDeletedKey ? deletedKeyValue : noEntryValue;
+        }
+        int idx = find(key);
+        return idx == -1 ? noEntryValue : value(idx);
+    }
+
+    public boolean containsKey(long key) {
+        ensureOpen();
+        if (key == EMPTY) {
+            return hasEmptyKey;
+        } else if (key == DELETED) {
+            return hasDeletedKey;
+        }
+        return find(key) != -1;
+    }
+
+    public long noEntryValue() {
+        return noEntryValue;
+    }
+
+    public void clear() {
+        ensureOpen();
+        clear(DEFAULT_CAPACITY);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Give the table's memory back. The map can't be used afterwards.
+     * Closing a closed map does nothing.
+     */
+    @Override
+    public void close() {
+        DirectMemory.free(chunks);
+        chunks = null;
+    }
+
+    /**
+     * Save this map to path, replacing whatever is there. It's fine for path
+     * to be the file this map was open()ed from.
+     */
+    public void writeTo(Path path) throws IOException {
+        ensureOpen();
+        var header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION);
+        header.putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0);
+        header.putInt(capacity).putInt(size).putInt(used);
+        header.putDouble(loadFactor).putLong(noEntryValue);
+        header.put((byte) (hasEmptyKey ? 1 : 0)).putLong(emptyKeyValue);
+        header.put((byte) (hasDeletedKey ? 1 : 0)).putLong(deletedKeyValue);
+        header.clear();
+        DirectMemory.writeFile(path, header, chunks);
+    }
+
+    /**
+     * Map a file written by writeTo() back in. Lookups read the file's pages
+     * directly; nothing is decoded or rehashed.
+     * @throws IOException if path can't be read or isn't one of our files.
+     */
+    public static OffHeapLongLongHashMap open(Path path) throws IOException {
+        // a private mapping needs a channel opened for writing, even though
+        // nothing is ever written through it
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && ch.read(header) >= 0) {
+                continue;
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + " is not an OffHeapLongLongHashMap snapshot");
+            }
+            if ((header.getInt() == 1) != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)) {
+                throw new IOException(path + " was written with a different byte order");
+            }
+            int cap = header.getInt();
+            if (Integer.bitCount(cap) != 1 || cap > MAX_CAPACITY
+                    || ch.size() != HEADER_BYTES + (long) cap * SLOT_BYTES) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            var map = new OffHeapLongLongHashMap(1);
+            map.size = header.getInt();
+            map.used = header.getInt();
+            map.loadFactor = header.getDouble();
+            map.noEntryValue = header.getLong();
+            map.hasEmptyKey = header.get() == 1;
+            map.emptyKeyValue = header.getLong();
+            map.hasDeletedKey = header.get() == 1;
+            map.deletedKeyValue = header.getLong();
+
+            int chunkBytes = Math.min(cap, 1 << CHUNK_SHIFT) * SLOT_BYTES;
+            var mapped = new ByteBuffer[(int) ((long) cap * SLOT_BYTES / chunkBytes)];
+            for (int i = 0; i < mapped.length; ++i) {
+                mapped[i] = ch.map(FileChannel.MapMode.PRIVATE, HEADER_BYTES + (long) i * chunkBytes, chunkBytes)
+                        .order(ByteOrder.nativeOrder());
+            }
+            DirectMemory.free(map.chunks);
+            map.chunks = mapped;
+            map.capacity = cap;
+            return map;
+        }
+    }
+
+    private void ensureOpen() {
+        if (chunks == null) {
+            throw new IllegalStateException("map is closed");
+        }
+    }
+
+    private long putSpecial(long key, long value) {
+        long oldVal = get(key);
+        if (!containsKey(key)) {
+            size++;
+        }
+        if (key == EMPTY) {
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+        } else {
+            hasDeletedKey = true;
+            deletedKeyValue = value;
+        }
+        return oldVal;
+    }
+
+    private void clear(int cap) {
+        // round up to a power of two
+        cap = cap <= 1 ? 1 : Integer.highestOneBit(cap - 1) << 1;
+        DirectMemory.free(chunks);
+        chunks = DirectMemory.allocate(cap, SLOT_BYTES, CHUNK_SHIFT);
+        capacity = cap;
+        size = 0;
+        used = 0;
+        hasEmptyKey = hasDeletedKey = false;
+    }
+
+    private int find(long key) {
+        int idx = hash(key);
+        long k;
+        while ((k = key(idx)) != EMPTY) {
+            if (k == key) {
+                return idx;
+            }
+            idx = increment(idx);
+        }
+        return -1;
+    }
+
+    private long key(int idx) {
+        return chunks[idx >>> CHUNK_SHIFT].getLong((idx & CHUNK_MASK) * SLOT_BYTES);
+    }
+
+    private long value(int idx) {
+        return chunks[idx >>> CHUNK_SHIFT].getLong((idx & CHUNK_MASK) * SLOT_BYTES + 8);
+    }
+
+    private void setKey(int idx, long key) {
+        chunks[idx >>> CHUNK_SHIFT].putLong((idx & CHUNK_MASK) * SLOT_BYTES, key);
+    }
+
+    private void setValue(int idx, long value) {
+        chunks[idx >>> CHUNK_SHIFT].putLong((idx & CHUNK_MASK) * SLOT_BYTES + 8, value);
+    }
+
+    private int hash(long key) {
+        return Hasher.mix(key) & (capacity - 1);
+    }
+
+    private int increment(int idx) {
+        return (idx + 1) & (capacity - 1);
+    }
+
+    // Double the table. Checked before doubling, since 2 * MAX_CAPACITY
+    // would overflow.
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("map is full: it already has the most slots it can, " + MAX_CAPACITY);
+        }
+        rehash(capacity * 2);
+    }
+
+    private void rehash(int newCap) {
+        var oldChunks = chunks;
+        int oldCap = capacity;
+        chunks = DirectMemory.allocate(newCap, SLOT_BYTES, CHUNK_SHIFT);
+        capacity = newCap;
+        used = 0;
+        for (int i = 0; i < oldCap; ++i) {
+            var b = oldChunks[i >>> CHUNK_SHIFT];
+            int off = (i & CHUNK_MASK) * SLOT_BYTES;
+            long k = b.getLong(off);
+            // skip empties and tombstones.
+            if (k != EMPTY && k != DELETED) {
+                int idx = hash(k);
+                while (key(idx) != EMPTY) {
+                    idx = increment(idx);
+                }
+                setKey(idx, k);
+                setValue(idx, b.getLong(off + 8));
+                used++;
+            }
+        }
+        DirectMemory.free(oldChunks);
+    }
+
+    public void printStats() {
+        System.out.println("Size: " + size);
+        System.out.println("Capacity: " + capacity);
+        System.out.println("Off-heap bytes: " + (long) capacity * SLOT_BYTES);
+    }
+}
@@ -1,23 +1,89 @@
 package ods;
 
-import java.lang.reflect.Array;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Random;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class SkipListSet<T extends Comparable<T>> implements Set<T> {
+/**
+ * A skiplist with the width of every link, so that it can index by
+ * position as well as by value, and a finger: the last position add(),
+ * find() or remove() looked at, where the next one starts its search.
+ *
+ * This class is not thread-safe, and that includes find(). Even though it
+ * doesn't change the set, it moves the finger, so two find()s at once can
+ * corrupt it. Reads that don't use the finger (first(), last(), floor(),
+ * ceiling(), lower(), higher(), get(), rank() and the iterators, spliterator
+ * and stream) only look, and can run alongside each other, but not
+ * alongside a find() or anything that changes the set. Use
+ * LockFreeSkipListSet where threads share a set.
+ */
+public class SkipListSet<T extends Comparable<T>> implements SortedSet<T> {
     private static final int MAX_HEIGHT = 32;
-    private static final Random rand = new Random();
+    // files written by writeTo() start with MAGIC and the element count
+    private static final int MAGIC = 0x4F445353; // "ODSS"
+    private static final int HEADER_BYTES = 8;
+    // how much we buffer between the channel and the codec
+    private static final int IO_BUFFER_BYTES = 1 << 16;
 
-    private Node sentinel;
+    private Node<T> sentinel;
     private int height;
     private int size;
     private Comparator<T> comp;
-    
-    public SkipListSet(Comparator<T> c) {
-        sentinel = new Node(null, MAX_HEIGHT);
+    // state of the generator behind pickHeight(). Never 0.
+    private long seed;
+    // where findPredNodes() leaves its answer, so add() allocates nothing
+    // but the new node. While fingerValid, preds also serves as a finger:
+    // the predecessors, on every level up to height, of the value the last
+    // add, find or remove looked for.
+    private Node<T>[] preds;
+    // the positions of preds, counting the sentinel as 0 and the elements
+    // from 1 (see Node.width)
+    private int[] predPos;
+    private boolean fingerValid;
+    // the last node on each level (the sentinel if the level is empty), for
+    // appendIfGreater()
+    private Node<T>[] tails;
+    // bumped whenever elements come or go, so that spliterators can tell
+    // they're stale
+    private int modCount;
+
+    public SkipListSet(Comparator<T> c, long seed) {
+        sentinel = new Node<>(null, MAX_HEIGHT);
+        sentinel.width[0] = 1;
+        preds = newNodeArray(MAX_HEIGHT + 1);
+        predPos = new int[MAX_HEIGHT + 1];
+        tails = newNodeArray(MAX_HEIGHT + 1);
+        Arrays.fill(tails, sentinel);
         height = 0;
         size = 0;
         comp = c;
+        // xorshift gets stuck at 0
+        this.seed = seed != 0 ? seed : 0x9E3779B97F4A7C15L;
+    }
+
+    public SkipListSet(Comparator<T> c) {
+        this(c, System.nanoTime());
+    }
+
+    /**
+     * A set whose node heights are chosen by a generator started from seed,
+     * so that the same adds build the same skiplist every time.
+     */
+    public SkipListSet(long seed) {
+        this(Comparator.<T>naturalOrder(), seed);
     }
 
     public SkipListSet() {
@@ -28,8 +94,8 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
      * @param val
      * @return Node
      */
-    private Node findPredNode(T val) {
-        Node cur = sentinel;
+    private Node<T> findPredNode(T val) {
+        Node<T> cur = sentinel;
         int level = height;
         // keep searching until we've reached level 0
         while (level >= 0) {
@@ -47,49 +113,90 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
     }
 
     /**
-     * @param val
-     * @return Node[]
+     * Like findPredNode, but also steps past a node equal to val, so the
+     * result is the last node with data &lt;= val.
      */
-    // like findPredNode, but returns an arraylist of predecessors
-    @SuppressWarnings("unchecked")
-    private Node[] findPredNodes(T val) {
-        var preds = (Node[]) Array.newInstance(Node.class, height + 1);
+    private Node<T> findLastAtMost(T val) {
+        Node<T> cur = sentinel;
+        for (int level = height; level >= 0; --level) {
+            while (cur.next[level] != null && comp.compare(cur.next[level].data, val) <= 0) {
+                cur = cur.next[level];
+            }
+        }
+        return cur;
+    }
 
-        Node cur = sentinel;
+    /**
+     * @param val
+     */
+    // like findPredNode, but finds the predecessor on every level, and
+    // leaves them in the preds buffer (levels 0 through height).
+    //
+    // If there's a finger we start from it instead of the top of the
+    // sentinel: climb until the finger's node on our level comes before val
+    // and the next node on it doesn't, then search down as usual. Going up,
+    // the finger's nodes only get further back, so this works whichever
+    // side of the last value val is on, and the predecessors above where we
+    // stopped are still right for val. That takes O(log d) time, where d is
+    // how far val is from the last value, so a run of nearby adds or finds
+    // never goes near the top levels.
+    private void findPredNodes(T val) {
+        Node<T> cur = sentinel;
+        int pos = 0;
         int level = height;
+        if (fingerValid) {
+            level = 0;
+            while (level < height && (!before(preds[level], val) || before(preds[level].next[level], val))) {
+                level++;
+            }
+            // if even the top of the finger is past val, start from scratch
+            if (before(preds[level], val)) {
+                cur = preds[level];
+                pos = predPos[level];
+            } else {
+                level = height;
+            }
+        }
         // keep searching until we've reached level 0
         while (level >= 0) {
             // move as far to the right as we can
             // Note that cur is always the predecessor of the node we're
             // looking at
             while (cur.next[level] != null && comp.compare(cur.next[level].data, val) < 0) {
+                pos += cur.width[level];
                 cur = cur.next[level];
             }
             // we can't go right. Go down to the next level This is a node for our
             // predecessor list
             preds[level] = cur;
+            predPos[level] = pos;
             level--;
         }
-        // return the node that contains the value that most directly preceeds val.
-        return preds;
+        fingerValid = true;
+    }
+
+    // whether n is the sentinel or holds a value less than val. A null n (off
+    // the end of its list) is never before anything.
+    private boolean before(Node<T> n, T val) {
+        return n == sentinel || n != null && comp.compare(n.data, val) < 0;
     }
 
     /**
      * @return int
      */
     private int pickHeight() {
-        // treat the bits of this variable as 32 random coinflips
-        int coinFlips = rand.nextInt();
+        // xorshift64*: a few shifts and a multiply on our own seed, rather
+        // than a shared Random whose seed every thread fights over
+        seed ^= seed >>> 12;
+        seed ^= seed << 25;
+        seed ^= seed >>> 27;
+        // treat the high bits of the result as 32 random coinflips
+        int coinFlips = (int) ((seed * 0x2545F4914F6CDD1DL) >>> 32);
 
-        int h = 0;
-        int spot = 1;
         // count the number of 0's that occur on the right of the binary
-        // representation of coinflips.
-        while ((coinFlips & spot) == 0) { // checks if rightmost bit is 0
-            h++;
-            spot = spot << 1; // shift spot over 1
-        }
-        return h;
+        // representation of coinflips. If all 32 are 0 that's 32, which the
+        // sentinel still has room for.
+        return Integer.numberOfTrailingZeros(coinFlips);
     }
 
     /**
@@ -97,7 +204,7 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
      */
     @Override
     public void add(T val) {
-        var preds = findPredNodes(val);
+        findPredNodes(val);
         // don't insert duplicates.
         var target = preds[0].next[0];
         if (target != null && target.data.equals(val)) {
@@ -105,18 +212,26 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
         }
 
         // make a new node, with coinflipped height
-        var newNode = new Node(val, pickHeight());
+        var newNode = new Node<>(val, pickHeight());
 
         // This is a little tricky. The new node might be shorter or taller than the
         // existing
         // skiplist. So, I break insertion up into two stages: As many of the found
         // predecessors
         // as we can use, followed by the sentinel in case we're tall.
-        int predHeight = Math.min(newNode.next.length, preds.length);
+        int newPos = predPos[0] + 1;
+        int predHeight = Math.min(newNode.next.length, height + 1);
         for (int i = 0; i < predHeight; ++i) {
             var curPred = preds[i];
             newNode.next[i] = curPred.next[i];
             curPred.next[i] = newNode;
+            // split curPred's link in two. Everything after it moved up one.
+            newNode.width[i] = curPred.width[i] - (newPos - predPos[i]) + 1;
+            curPred.width[i] = newPos - predPos[i];
+        }
+        // the links that pass over newNode just got one longer
+        for (int i = predHeight; i <= height; ++i) {
+            preds[i].width[i]++;
         }
         // if newNode is tall, pad the rest of its preds with the sentinel. Note that
         // this loop
@@ -124,6 +239,16 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
         for (int i = predHeight; i < newNode.next.length; ++i) {
             newNode.next[i] = sentinel.next[i];
             sentinel.next[i] = newNode;
+            sentinel.width[i] = newPos;
+            newNode.width[i] = size + 2 - newPos;
+            // keeps the finger complete on the new levels
+            preds[i] = sentinel;
+            predPos[i] = 0;
+        }
+        for (int i = 0; i < newNode.next.length; ++i) {
+            if (newNode.next[i] == null) {
+                tails[i] = newNode;
+            }
         }
 
         // Check if our skiplist got taller.
@@ -133,15 +258,61 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
 
         // The simplest bit!
         size++;
+        modCount++;
+    }
+
+    /**
+     * Add val to the end of the set, provided it is greater than every
+     * element already there. This skips the search entirely (we keep a
+     * pointer to the last node on each level), so it runs in O(1) expected
+     * time, which suits values that arrive in increasing order, like
+     * timestamps.
+     * @return true if val was added; false, leaving the set alone, if it
+     *         isn't greater than the last element.
+     */
+    public boolean appendIfGreater(T val) {
+        if (size > 0 && comp.compare(tails[0].data, val) >= 0) {
+            return false;
+        }
+        var newNode = new Node<>(val, pickHeight());
+        int newPos = size + 1;
+        for (int i = height + 1; i < newNode.next.length; ++i) {
+            sentinel.width[i] = newPos;
+        }
+        if (newNode.height() > height) {
+            height = newNode.height();
+        }
+        // the old tails are val's predecessors, so they make a good finger
+        for (int i = 0; i <= height; ++i) {
+            preds[i] = tails[i];
+            predPos[i] = newPos - tails[i].width[i];
+        }
+        fingerValid = true;
+        // a tail's link already reaches the end, which is where newNode goes
+        for (int i = 0; i < newNode.next.length; ++i) {
+            tails[i].next[i] = newNode;
+            newNode.width[i] = 1;
+            tails[i] = newNode;
+        }
+        for (int i = newNode.next.length; i <= height; ++i) {
+            tails[i].width[i]++;
+        }
+        size++;
+        modCount++;
+        return true;
     }
 
     /**
+     * Like add() and remove(), this moves the finger to val, so it must not
+     * run alongside any other call, even another find() (see the class
+     * comment).
      * @param val
      * @return T
      */
     @Override
     public T find(T val) {
-        var pred = findPredNode(val);
+        findPredNodes(val);
+        var pred = preds[0];
         if (pred.next[0] == null || !pred.next[0].data.equals(val)) {
             return null;
         } else {
@@ -155,33 +326,35 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
      */
     @Override
     public T remove(T val) {
-        Node cur = sentinel;
-        Node ret = null;
-        int level = height;
-
-        while (level >= 0) {
-            // move as far right as we can in list number "level"
-            while (cur.next[level] != null && comp.compare(cur.next[level].data, val) < 0) {
-                cur = cur.next[level];
-            }
-            if (cur.next[level] != null && comp.compare(cur.next[level].data, val) == 0) {
-                // we have something to return
-                ret = cur.next[level];
-                cur.next[level] = cur.next[level].next[level];
-                // did we just reduce the height? If so, we made
-                // this list empty
-                if (cur == sentinel && cur.next[level] == null) {
-                    height--;
+        // we have to know whether val is here before touching any links,
+        // since the ones that pass over it get shorter. The predecessors
+        // stay put, so the finger stays good.
+        findPredNodes(val);
+        var ret = preds[0].next[0];
+        if (ret == null || comp.compare(ret.data, val) != 0) {
+            return null;
+        }
+        for (int level = 0; level <= height; ++level) {
+            var cur = preds[level];
+            if (level < ret.next.length) {
+                cur.next[level] = ret.next[level];
+                cur.width[level] += ret.width[level] - 1;
+                if (cur.next[level] == null) {
+                    tails[level] = cur;
                 }
+            } else {
+                cur.width[level]--;
             }
-            level--;
         }
-        if (ret != null) {
-            size--;
-            return ret.data;
-        } else {
-            return null;
+        // did we just reduce the height? If so, we made the top lists
+        // empty. Level 0 stays, even when the whole set is empty, since add()
+        // needs at least one level.
+        while (height > 0 && sentinel.next[height] == null) {
+            height--;
         }
+        size--;
+        modCount++;
+        return ret.data;
     }
 
     /**
@@ -200,6 +373,403 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
         return size == 0;
     }
 
+    @Override
+    public T first() {
+        return dataOf(sentinel.next[0]);
+    }
+
+    @Override
+    public T last() {
+        // take the express lanes as far right as they go
+        Node<T> cur = sentinel;
+        for (int level = height; level >= 0; --level) {
+            while (cur.next[level] != null) {
+                cur = cur.next[level];
+            }
+        }
+        return dataOf(cur);
+    }
+
+    @Override
+    public T floor(T val) {
+        return dataOf(findLastAtMost(val));
+    }
+
+    @Override
+    public T ceiling(T val) {
+        return dataOf(findPredNode(val).next[0]);
+    }
+
+    @Override
+    public T lower(T val) {
+        return dataOf(findPredNode(val));
+    }
+
+    @Override
+    public T higher(T val) {
+        return dataOf(findLastAtMost(val).next[0]);
+    }
+
+    @Override
+    public Iterator<T> subSet(T from, T to) {
+        return new RangeIterator(findPredNode(from).next[0], to);
+    }
+
+    /**
+     * @return the element at index i, counting from 0 in sorted order. So
+     *         get(size() * 99 / 100) is the 99th percentile. Runs in
+     *         O(log n) expected time.
+     * @throws IndexOutOfBoundsException if i is negative or not below size().
+     */
+    public T get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + " out of bounds for size " + size);
+        }
+        return nodeAt(i + 1).data;
+    }
+
+    /**
+     * @return the number of elements less than val, which is also val's
+     *         index if it's in the set. Runs in O(log n) expected time.
+     */
+    public int rank(T val) {
+        Node<T> cur = sentinel;
+        int pos = 0;
+        for (int level = height; level >= 0; --level) {
+            while (cur.next[level] != null && comp.compare(cur.next[level].data, val) < 0) {
+                pos += cur.width[level];
+                cur = cur.next[level];
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Iterate, in order, over the elements with indices from &lt;= i &lt; to.
+     * Finding the first takes O(log n) expected time, and each one after
+     * that O(1). The set must not be modified while the iterator is in use.
+     * @throws IndexOutOfBoundsException unless 0 &lt;= from &lt;= to &lt;= size().
+     */
+    public Iterator<T> subList(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") out of bounds for size " + size);
+        }
+        return new IndexRangeIterator(nodeAt(from).next[0], to - from);
+    }
+
+    /**
+     * A Spliterator over the elements in order. It splits a range of
+     * elements at its middle index, found by adding up link widths on the
+     * way down from the top, express, levels, so the halves come out even
+     * and a parallel stream keeps its encounter order. It fails fast: if the
+     * set is modified while it's in use, it throws
+     * ConcurrentModificationException.
+     */
+    public Spliterator<T> spliterator() {
+        return new ListSpliterator(0, size);
+    }
+
+    /**
+     * @return a sequential stream of the elements in order. Call parallel()
+     *         on it to spread the work over the common pool.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    // The node at position pos (see Node.width), found by adding up widths
+    // on the way down.
+    private Node<T> nodeAt(int pos) {
+        Node<T> cur = sentinel;
+        int p = 0;
+        for (int level = height; level >= 0; --level) {
+            while (cur.next[level] != null && p + cur.width[level] <= pos) {
+                p += cur.width[level];
+                cur = cur.next[level];
+            }
+        }
+        return cur;
+    }
+
+    // the sentinel has no data, which conveniently maps it to null too
+    private T dataOf(Node<T> n) {
+        return n == null ? null : n.data;
+    }
+
+    /**
+     * Walks the bottom list from a starting node until it reaches an element
+     * that is not below the upper bound.
+     */
+    private class RangeIterator implements Iterator<T> {
+        private Node<T> next;
+        private final T to;
+
+        RangeIterator(Node<T> start, T to) {
+            this.next = start;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null && comp.compare(next.data, to) < 0;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T val = next.data;
+            next = next.next[0];
+            return val;
+        }
+    }
+
+    /**
+     * Replace the contents of this set with the next n elements of it, which
+     * must come in strictly increasing order. Runs in O(n) time. Rather than
+     * flipping coins, the i-th element (counting from 1) gets one level for
+     * each time 2 divides i, which gives the perfectly even skiplist: every
+     * other node on level 1, every fourth on level 2, and so on.
+     */
+    @SuppressWarnings("unchecked")
+    public void loadSorted(Iterator<? extends T> it, int n) {
+        sentinel = new Node<>(null, MAX_HEIGHT);
+        height = 0;
+        size = 0;
+        fingerValid = false;
+        modCount++;
+        Arrays.fill(tails, sentinel);
+        // where each of the tails is
+        var tailPos = new int[MAX_HEIGHT + 1];
+        for (int i = 1; i <= n; ++i) {
+            T val = it.next();
+            if (i > 1 && comp.compare(tails[0].data, val) >= 0) {
+                throw new IllegalArgumentException("elements are not in strictly increasing order");
+            }
+            var newNode = new Node<>(val, Integer.numberOfTrailingZeros(i));
+            for (int level = 0; level < newNode.next.length; ++level) {
+                tails[level].next[level] = newNode;
+                tails[level].width[level] = i - tailPos[level];
+                tails[level] = newNode;
+                tailPos[level] = i;
+            }
+            height = Math.max(height, newNode.height());
+            size++;
+        }
+        for (int level = 0; level <= height; ++level) {
+            tails[level].width[level] = n + 1 - tailPos[level];
+        }
+    }
+
+    /**
+     * Save this set to path, replacing whatever is there: a short header and
+     * then every element in order, encoded with codec. The file is streamed
+     * out through a small buffer.
+     */
+    public void writeTo(Path path, Codec<T> codec) throws IOException {
+        int record = codec.width();
+        var buf = ByteBuffer.allocate(Math.max(IO_BUFFER_BYTES, record));
+        buf.putInt(MAGIC).putInt(size);
+        try (var ch = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Node<T> cur = sentinel.next[0]; cur != null; cur = cur.next[0]) {
+                if (buf.remaining() < record) {
+                    flush(ch, buf);
+                }
+                codec.write(buf, buf.position(), cur.data);
+                buf.position(buf.position() + record);
+            }
+            flush(ch, buf);
+        }
+    }
+
+    /**
+     * Read back a set saved by writeTo(). The elements come out of the file
+     * already sorted, so this takes O(n) time (see loadSorted()).
+     * @throws IOException if path can't be read or isn't one of our files.
+     */
+    public static <T extends Comparable<T>> SkipListSet<T> readFrom(Path path, Codec<T> codec) throws IOException {
+        int record = codec.width();
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            var buf = ByteBuffer.allocate(Math.max(IO_BUFFER_BYTES, record));
+            buf.limit(0);
+            fill(ch, buf, HEADER_BYTES);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException(path + " is not a SkipListSet file");
+            }
+            int n = buf.getInt();
+            if (n < 0 || ch.size() != HEADER_BYTES + (long) n * record) {
+                throw new IOException(path + " is truncated or corrupt");
+            }
+            var set = new SkipListSet<T>();
+            // an iterator can't throw IOException, so it smuggles it out
+            // wrapped, and we unwrap it here
+            var elements = new Iterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public T next() {
+                    try {
+                        fill(ch, buf, record);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    T val = codec.read(buf, buf.position());
+                    buf.position(buf.position() + record);
+                    return val;
+                }
+            };
+            try {
+                set.loadSorted(elements, n);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " is not in sorted order", e);
+            }
+            return set;
+        }
+    }
+
+    private static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        buf.clear();
+    }
+
+    // Make sure buf has at least n bytes ready to read, topping it up from ch.
+    private static void fill(FileChannel ch, ByteBuffer buf, int n) throws IOException {
+        if (buf.remaining() >= n) {
+            return;
+        }
+        buf.compact();
+        while (buf.position() < n) {
+            if (ch.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+    /**
+     * Covers the elements with indices lo &lt;= i &lt; hi. The node at lo is
+     * only looked up when it's first needed, since most spliterators are
+     * split again before they're walked.
+     */
+    private class ListSpliterator implements Spliterator<T> {
+        private int lo;
+        private final int hi;
+        // the node at index lo, or null if we haven't found it yet
+        private Node<T> next;
+        private int expectedModCount = modCount;
+
+        ListSpliterator(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (lo >= hi) {
+                return false;
+            }
+            if (next == null) {
+                next = nodeAt(lo + 1);
+            }
+            T val = next.data;
+            next = next.next[0];
+            lo++;
+            action.accept(val);
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            // checked up front as well, since a stale next could run off
+            // the end of the list
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (lo < hi) {
+                var n = next != null ? next : nodeAt(lo + 1);
+                for (; lo < hi; ++lo) {
+                    action.accept(n.data);
+                    n = n.next[0];
+                }
+                next = null;
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = (lo + hi) >>> 1;
+            if (mid <= lo) {
+                return null;
+            }
+            var prefix = new ListSpliterator(lo, mid);
+            prefix.next = next;
+            prefix.expectedModCount = expectedModCount;
+            lo = mid;
+            next = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return hi - lo;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | DISTINCT | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return comp;
+        }
+    }
+
+    /**
+     * Walks the bottom list from a starting node for a fixed number of steps.
+     */
+    private class IndexRangeIterator implements Iterator<T> {
+        private Node<T> next;
+        private int remaining;
+
+        IndexRangeIterator(Node<T> start, int count) {
+            this.next = start;
+            this.remaining = count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T val = next.data;
+            next = next.next[0];
+            remaining--;
+            return val;
+        }
+    }
+
     public void print() {
         for (int level = height; level >= 0; --level) {
             System.out.printf("level %d: sentinel -> ", level);
@@ -217,7 +787,7 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
      */
     public double averageHeight() {
         double total = 0.0;
-        Node cur = sentinel;
+        Node<T> cur = sentinel;
         while (cur.next[0] != null) {
             total += cur.next[0].height();
             cur = cur.next[0];
@@ -225,18 +795,27 @@ public class SkipListSet<T extends Comparable<T>> implements Set<T> {
         return total / size;
     }
 
-    private class Node {
-        Node[] next;
+    // Counting the sentinel as position 0 and the elements as 1 through
+    // size, width[i] is how many positions next[i] is ahead of us. A link
+    // off the end of its list leads to position size + 1.
+    private static final class Node<T> {
+        Node<T>[] next;
+        int[] width;
         T data;
 
-        @SuppressWarnings("unchecked")
         Node(T d, int height) {
             this.data = d;
-            next = (Node[]) Array.newInstance(Node.class, height + 1);
+            next = newNodeArray(height + 1);
+            width = new int[height + 1];
         }
 
         int height() {
             return next.length - 1;
         }
     }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newNodeArray(int n) {
+        return (Node<T>[]) new Node<?>[n];
+    }
 }
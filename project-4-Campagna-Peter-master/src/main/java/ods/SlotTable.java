@@ -0,0 +1,228 @@
+package ods;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.BiPredicate;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * A hash table seen as an array of slots, each holding some number of
+ * entries: none or one in LinearProbedHashMap, a whole bucket in
+ * ChainedHashMap. The parallel bulk operations and the spliterators of
+ * both maps work on ranges of slot indices, cutting a range in half until
+ * the pieces are small enough, and this is all they need to know about
+ * the table.
+ *
+ * A SlotTable is made from the map's arrays as they are at the time, and
+ * keeps using them if the map resizes. The map's modCount is how the
+ * operations notice that the map changed under them.
+ */
+abstract class SlotTable<K, V> {
+
+    /**
+     * @return the number of slots.
+     */
+    abstract int length();
+
+    /**
+     * Call action on each entry in slot i, stopping early if it returns
+     * false.
+     * @return false if action did, true otherwise.
+     */
+    abstract boolean visit(int i, BiPredicate<? super K, ? super V> action);
+
+    /**
+     * @return the map's modCount as it is now.
+     */
+    abstract int modCount();
+
+    /**
+     * Run fn on every entry, on the common ForkJoinPool, in ranges of at
+     * most leaf slots. With a reducer the non-null results are combined
+     * with it; with found, the first non-null result goes there and the
+     * rest of the work is called off; with neither, fn is only run for its
+     * side effects.
+     * @return the combined result, or null if there was none.
+     * @throws ConcurrentModificationException if the map was modified
+     *         while this ran.
+     */
+    <U> U parallel(BiFunction<? super K, ? super V, ? extends U> fn, BinaryOperator<U> reducer,
+            AtomicReference<U> found, int leaf) {
+        int expectedModCount = modCount();
+        U result = ForkJoinPool.commonPool().invoke(new BulkTask<>(this, 0, length(), leaf, fn, reducer, found));
+        if (modCount() != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+        return result;
+    }
+
+    /**
+     * A Spliterator over all the entries, each handed out as a new
+     * immutable Map.Entry. size is the number of entries in the table.
+     */
+    Spliterator<java.util.Map.Entry<K, V>> spliterator(int size) {
+        return new RangeSpliterator<>(this, 0, length(), size, true);
+    }
+
+    // never serialized, it's only a RecursiveTask to run on a ForkJoinPool
+    @SuppressWarnings("serial")
+    private static final class BulkTask<K, V, U> extends RecursiveTask<U> {
+        private final SlotTable<K, V> table;
+        private final int lo;
+        private final int hi;
+        private final int leaf;
+        private final BiFunction<? super K, ? super V, ? extends U> fn;
+        private final BinaryOperator<U> reducer;
+        private final AtomicReference<U> found;
+        // what a leaf task has reduced so far
+        private U acc;
+
+        BulkTask(SlotTable<K, V> table, int lo, int hi, int leaf, BiFunction<? super K, ? super V, ? extends U> fn,
+                BinaryOperator<U> reducer, AtomicReference<U> found) {
+            this.table = table;
+            this.lo = lo;
+            this.hi = hi;
+            this.leaf = leaf;
+            this.fn = fn;
+            this.reducer = reducer;
+            this.found = found;
+        }
+
+        @Override
+        protected U compute() {
+            if (found != null && found.get() != null) {
+                return null;
+            }
+            if (hi - lo > leaf) {
+                int mid = (lo + hi) >>> 1;
+                var right = new BulkTask<K, V, U>(table, mid, hi, leaf, fn, reducer, found);
+                right.fork();
+                U left = new BulkTask<K, V, U>(table, lo, mid, leaf, fn, reducer, found).compute();
+                return combine(left, right.join());
+            }
+            BiPredicate<K, V> sink = this::accept;
+            for (int i = lo; i < hi; ++i) {
+                if (!table.visit(i, sink)) {
+                    // the search is over
+                    return null;
+                }
+            }
+            return acc;
+        }
+
+        // Fold one entry's result into acc. Returns false once a search
+        // has its answer.
+        private boolean accept(K k, V v) {
+            U u = fn.apply(k, v);
+            if (u == null) {
+                return true;
+            }
+            if (found != null) {
+                found.compareAndSet(null, u);
+                return false;
+            }
+            if (reducer != null) {
+                acc = acc == null ? u : reducer.apply(acc, u);
+            }
+            return true;
+        }
+
+        private U combine(U a, U b) {
+            if (a == null) {
+                return b;
+            } else if (b == null) {
+                return a;
+            }
+            return reducer.apply(a, b);
+        }
+    }
+
+    /**
+     * Covers slots [next, end), plus whatever is left of the slot it's in
+     * the middle of. Only the unsplit whole table knows its exact size.
+     */
+    private static final class RangeSpliterator<K, V> implements Spliterator<java.util.Map.Entry<K, V>> {
+        private final SlotTable<K, V> table;
+        private int next;
+        private final int end;
+        private long est;
+        private boolean sized;
+        private final int expectedModCount;
+        // the entries of the current slot, and how many we've handed out
+        private final ArrayList<java.util.Map.Entry<K, V>> pending = new ArrayList<>();
+        private int taken;
+        private final BiPredicate<K, V> collect = (k, v) -> pending.add(new AbstractMap.SimpleImmutableEntry<>(k, v));
+
+        RangeSpliterator(SlotTable<K, V> table, int next, int end, long est, boolean sized) {
+            this.table = table;
+            this.next = next;
+            this.end = end;
+            this.est = est;
+            this.sized = sized;
+            expectedModCount = table.modCount();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super java.util.Map.Entry<K, V>> action) {
+            while (taken == pending.size()) {
+                if (next == end) {
+                    return false;
+                }
+                pending.clear();
+                taken = 0;
+                table.visit(next++, collect);
+            }
+            action.accept(pending.get(taken++));
+            if (table.modCount() != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super java.util.Map.Entry<K, V>> action) {
+            while (taken < pending.size()) {
+                action.accept(pending.get(taken++));
+            }
+            for (; next < end; ++next) {
+                table.visit(next, (k, v) -> {
+                    action.accept(new AbstractMap.SimpleImmutableEntry<>(k, v));
+                    return true;
+                });
+            }
+            if (table.modCount() != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public Spliterator<java.util.Map.Entry<K, V>> trySplit() {
+            int mid = (next + end) >>> 1;
+            if (mid <= next) {
+                return null;
+            }
+            est >>>= 1;
+            sized = false;
+            var prefix = new RangeSpliterator<>(table, next, mid, est, false);
+            next = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return est;
+        }
+
+        @Override
+        public int characteristics() {
+            return DISTINCT | NONNULL | (sized ? SIZED : 0);
+        }
+    }
+}
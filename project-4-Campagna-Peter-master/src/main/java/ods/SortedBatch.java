@@ -0,0 +1,191 @@
+package ods;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Helpers for the bulk operations on the sorted maps, which all come down to
+ * getting a batch of keys into key order and then walking it alongside the
+ * map. Each takes the map's comparator.
+ */
+final class SortedBatch {
+    private SortedBatch() {
+    }
+
+    /**
+     * An array to hold n keys of a map whose key type is bounded by
+     * Comparable. A generic class sees K[] as Comparable[], so an Object[]
+     * wouldn't do.
+     */
+    @SuppressWarnings("unchecked")
+    static <K extends Comparable<K>> K[] newKeys(int n) {
+        return (K[]) new Comparable<?>[n];
+    }
+
+    /**
+     * Throws IllegalArgumentException unless keys are in strictly increasing
+     * order.
+     */
+    static <K> void checkSorted(K[] keys, Comparator<? super K> comp) {
+        for (int i = 1; i < keys.length; ++i) {
+            checkNext(keys[i - 1], keys[i], comp);
+        }
+    }
+
+    /**
+     * Throws IllegalArgumentException unless key comes strictly after prev.
+     * A null prev means key is the first one, which is always fine.
+     */
+    static <K> void checkNext(K prev, K key, Comparator<? super K> comp) {
+        if (prev != null && comp.compare(prev, key) >= 0) {
+            throw new IllegalArgumentException("keys are not in strictly increasing order");
+        }
+    }
+
+    /**
+     * Merge the entries under cur, which walks them in key order, with the
+     * batch keys/values, which must be in strictly increasing key order,
+     * into outKeys and outValues. Where a key is in both, the batch's value
+     * wins. The out arrays must have room for both. Returns how many entries
+     * were written.
+     */
+    static <K, V> int merge(MapCursor<K, V> cur, K[] keys, V[] values, K[] outKeys, V[] outValues,
+            Comparator<? super K> comp) {
+        int n = 0;
+        int i = 0;
+        boolean more = cur.advance();
+        while (more || i < keys.length) {
+            int c = !more ? 1 : i == keys.length ? -1 : comp.compare(cur.key(), keys[i]);
+            if (c < 0) {
+                outKeys[n] = cur.key();
+                outValues[n++] = cur.value();
+                more = cur.advance();
+            } else {
+                outKeys[n] = keys[i];
+                outValues[n++] = values[i++];
+                if (c == 0) {
+                    more = cur.advance();
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The indices of keys, sorted by key. The sort is stable, so equal keys
+     * stay in batch order.
+     */
+    static <K> Integer[] sortedOrder(K[] keys, Comparator<? super K> comp) {
+        var order = new Integer[keys.length];
+        for (int i = 0; i < order.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> comp.compare(keys[a], keys[b]));
+        return order;
+    }
+
+    /**
+     * The first i in [lo, hi) with keys[order[i]] &gt;= key, or hi, where
+     * order is from sortedOrder().
+     */
+    static <K> int firstNotBelow(K[] keys, Integer[] order, int lo, int hi, K key, Comparator<? super K> comp) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comp.compare(keys[order[mid]], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * How getAll() gets around a binary search tree made of N nodes.
+     */
+    interface Nodes<N, K, V> {
+        K key(N n);
+
+        V value(N n);
+
+        N left(N n);
+
+        N right(N n);
+    }
+
+    /**
+     * Look up every one of keys in the binary search tree under root, putting
+     * each one's value, or null, in the same place in out. The batch is sorted
+     * and the tree walked once for all of it. At each node the keys that go
+     * left are split off from the ones that go right, so a path that several
+     * keys share is only walked once, and a key costs O(log m) comparisons per
+     * node rather than one.
+     */
+    static <N, K, V> void getAll(N root, Nodes<N, K, V> nodes, K[] keys, V[] out, Comparator<? super K> comp) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out is shorter than keys");
+        }
+        int m = keys.length;
+        var order = sortedOrder(keys, comp);
+        // the pending (subtree, range of order) pairs. The ranges are
+        // disjoint and never empty, so there are at most m of them.
+        var subtrees = new Object[m];
+        var los = new int[m];
+        var his = new int[m];
+        int top = 0;
+        if (m > 0) {
+            subtrees[0] = root;
+            his[0] = m;
+            top = 1;
+        }
+        while (top > 0) {
+            --top;
+            @SuppressWarnings("unchecked")
+            N cur = (N) subtrees[top];
+            int lo = los[top];
+            int hi = his[top];
+            if (cur == null) {
+                for (int i = lo; i < hi; ++i) {
+                    out[order[i]] = null;
+                }
+                continue;
+            }
+            // order[lo..mid) go left, order[mid..eq) are cur's key, and the
+            // rest go right
+            K key = nodes.key(cur);
+            int mid = firstNotBelow(keys, order, lo, hi, key, comp);
+            int eq = mid;
+            while (eq < hi && comp.compare(keys[order[eq]], key) == 0) {
+                out[order[eq++]] = nodes.value(cur);
+            }
+            if (lo < mid) {
+                subtrees[top] = nodes.left(cur);
+                los[top] = lo;
+                his[top++] = mid;
+            }
+            if (eq < hi) {
+                subtrees[top] = nodes.right(cur);
+                los[top] = eq;
+                his[top++] = hi;
+            }
+        }
+    }
+
+    /**
+     * Copy the batch into sk and sv in key order, keeping only the last
+     * value of each run of equal keys, just as a loop of put()s would.
+     * Returns how many distinct keys there are.
+     */
+    static <K, V> int dedupe(K[] keys, V[] values, Integer[] order, K[] sk, V[] sv, Comparator<? super K> comp) {
+        int n = 0;
+        for (int i : order) {
+            if (n > 0 && comp.compare(sk[n - 1], keys[i]) == 0) {
+                sv[n - 1] = values[i];
+            } else {
+                sk[n] = keys[i];
+                sv[n++] = values[i];
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,52 @@
+package ods;
+
+import java.util.Iterator;
+
+/**
+ * A Map that keeps its keys in order, and so can answer questions about
+ * neighbouring keys and ranges. Like java.util.NavigableMap, but scaled down.
+ * The key methods return null when there is no such key.
+ *
+ * @param <K> the type of the search keys.
+ * @param <V> the value type associated with our keys.
+ */
+public interface SortedMap<K, V> extends Map<K, V> {
+
+    /**
+     * @return the smallest key, or null if the map is empty.
+     */
+    K firstKey();
+
+    /**
+     * @return the largest key, or null if the map is empty.
+     */
+    K lastKey();
+
+    /**
+     * @return the largest key less than or equal to key, or null.
+     */
+    K floorKey(K key);
+
+    /**
+     * @return the smallest key greater than or equal to key, or null.
+     */
+    K ceilingKey(K key);
+
+    /**
+     * @return the largest key strictly less than key, or null.
+     */
+    K lowerKey(K key);
+
+    /**
+     * @return the smallest key strictly greater than key, or null.
+     */
+    K higherKey(K key);
+
+    /**
+     * Iterate, in key order, over the entries with from &lt;= key &lt; to.
+     * The iterator is lazy: it finds the first entry in O(log n) and then
+     * steps to each successor, so visiting k entries costs O(log n + k).
+     * The map must not be modified while the iterator is in use.
+     */
+    Iterator<java.util.Map.Entry<K, V>> subMap(K from, K to);
+}
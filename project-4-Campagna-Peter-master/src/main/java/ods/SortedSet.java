@@ -0,0 +1,47 @@
+package ods;
+
+import java.util.Iterator;
+
+/**
+ * A Set that keeps its elements in order. The element methods return null
+ * when there is no such element.
+ */
+public interface SortedSet<T extends Comparable<T>> extends Set<T> {
+
+    /**
+     * @return the smallest element, or null if the set is empty.
+     */
+    T first();
+
+    /**
+     * @return the largest element, or null if the set is empty.
+     */
+    T last();
+
+    /**
+     * @return the largest element less than or equal to val, or null.
+     */
+    T floor(T val);
+
+    /**
+     * @return the smallest element greater than or equal to val, or null.
+     */
+    T ceiling(T val);
+
+    /**
+     * @return the largest element strictly less than val, or null.
+     */
+    T lower(T val);
+
+    /**
+     * @return the smallest element strictly greater than val, or null.
+     */
+    T higher(T val);
+
+    /**
+     * Iterate, in order, over the elements with from &lt;= element &lt; to.
+     * The iterator is lazy, so visiting k elements costs O(log n + k). The
+     * set must not be modified while the iterator is in use.
+     */
+    Iterator<T> subSet(T from, T to);
+}
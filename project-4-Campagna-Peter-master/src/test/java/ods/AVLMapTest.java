@@ -0,0 +1,220 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks AVLMap against java.util.TreeMap.
+ */
+class AVLMapTest {
+
+    @Test
+    void randomOpsMatchTreeMap() {
+        ChainedHashMapTest.checkAgainstHashMap(new AVLMap<>(), 2000, 9);
+    }
+
+    @Test
+    void removeKeepsOrderAndSizes() {
+        int n = 100000;
+        var map = new AVLMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < n; ++i) {
+            map.put(i, i);
+            ref.put(i, i);
+        }
+        var rnd = new Random(10);
+        for (int i = 0; i < n / 2; ++i) {
+            int k = rnd.nextInt(n);
+            assertEquals(ref.remove(k), map.remove(k));
+        }
+        BSTMapTest.assertSameEntries(ref, map);
+        // select() and rank() only work if remove() fixed the subtree sizes
+        int i = 0;
+        for (var k : ref.keySet()) {
+            assertEquals(k, map.select(i));
+            assertEquals(i, map.rank(k));
+            i++;
+        }
+    }
+
+    @Test
+    void mergeSortedMatchesTreeMap() {
+        var rnd = new Random(12);
+        var map = new AVLMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        for (int round = 0; round < 20; ++round) {
+            // a sorted batch, some of it new and some already in the map
+            var batch = new TreeMap<Integer, Integer>();
+            int m = rnd.nextInt(500);
+            for (int i = 0; i < m; ++i) {
+                batch.put(rnd.nextInt(5000), round);
+            }
+            var keys = batch.keySet().toArray(new Integer[0]);
+            var values = batch.values().toArray(new Integer[0]);
+            if (round % 5 == 0) {
+                map.loadSorted(keys, values);
+                ref.clear();
+            } else {
+                map.mergeSorted(keys, values);
+            }
+            ref.putAll(batch);
+            BSTMapTest.assertSameEntries(ref, map);
+        }
+        // and from an iterator, which only ever sees each entry once
+        map.loadSorted(ref.entrySet().iterator(), ref.size());
+        BSTMapTest.assertSameEntries(ref, map);
+    }
+
+    @Test
+    void unsortedBatchesAreRejected() {
+        var map = new AVLMap<Integer, Integer>();
+        Integer[] keys = {1, 3, 3};
+        assertThrows(IllegalArgumentException.class, () -> map.loadSorted(keys, keys));
+        assertThrows(IllegalArgumentException.class, () -> map.mergeSorted(keys, keys));
+        var ref = new TreeMap<Integer, Integer>(java.util.Map.of(1, 1, 2, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> map.loadSorted(ref.descendingMap().entrySet().iterator(), 2));
+    }
+
+    @Test
+    void navigationMatchesTreeMap() {
+        BSTMapTest.checkNavigation(new AVLMap<>(), 14);
+    }
+
+    @Test
+    void rangeEntriesAreSnapshots() {
+        BSTMapTest.checkEntriesAreSnapshots(new AVLMap<>());
+    }
+
+    @Test
+    void writeToReadFromRoundTrip(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        var map = new AVLMap<String, Long>();
+        var ref = new TreeMap<String, Long>();
+        var rnd = new Random(24);
+        for (long i = 0; i < 20000; ++i) {
+            var k = Integer.toString(rnd.nextInt(50000), 36);
+            map.put(k, i);
+            ref.put(k, i);
+        }
+        map.writeTo(file, Codec.strings(4), Codec.longs());
+        var back = AVLMap.readFrom(file, Codec.strings(4), Codec.longs());
+        assertEquals(ref.size(), back.size());
+        var it = ref.entrySet().iterator();
+        var c = back.cursor();
+        int i = 0;
+        while (c.advance()) {
+            var e = it.next();
+            assertEquals(e.getKey(), c.key());
+            assertEquals(e.getValue(), c.value());
+            // the rebuilt tree has its subtree sizes too
+            assertEquals(e.getKey(), back.select(i++));
+        }
+        assertEquals(ref.size(), i);
+        // and it's an ordinary map from then on
+        back.put("zzzzz", -1L);
+        ref.put("zzzzz", -1L);
+        assertEquals(ref.lastKey(), back.lastKey());
+        assertEquals(ref.size(), back.size());
+    }
+
+    @Test
+    void emptyAndForeignFiles(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        new AVLMap<Integer, Integer>().writeTo(file, Codec.ints(), Codec.ints());
+        assertEquals(0, AVLMap.readFrom(file, Codec.ints(), Codec.ints()).size());
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> AVLMap.readFrom(file, Codec.ints(), Codec.ints()));
+    }
+
+    @Test
+    void orderStatisticsMatchTreeMap() {
+        var map = new AVLMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        var rnd = new Random(32);
+        for (int round = 0; round < 10; ++round) {
+            // single puts and removes rotate; a sorted merge rebuilds
+            for (int i = 0; i < 3000; ++i) {
+                int k = rnd.nextInt(8000);
+                if (rnd.nextInt(3) == 0) {
+                    assertEquals(ref.remove(k), map.remove(k));
+                } else {
+                    assertEquals(ref.put(k, i), map.put(k, i));
+                }
+            }
+            if (round % 3 == 2) {
+                Integer[] keys = {-3, -2, 8001};
+                map.mergeSorted(keys, keys);
+                for (var k : keys) {
+                    ref.put(k, k);
+                }
+            }
+            var sorted = new ArrayList<>(ref.keySet());
+            for (int i = 0; i < sorted.size(); ++i) {
+                assertEquals(sorted.get(i), map.select(i));
+            }
+            for (int i = 0; i < 300; ++i) {
+                int a = rnd.nextInt(8010) - 5;
+                int b = a + rnd.nextInt(2000) - 100;
+                assertEquals(ref.headMap(a).size(), map.rank(a));
+                assertEquals(a <= b ? ref.subMap(a, true, b, true).size() : 0, map.countRange(a, b));
+            }
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> map.select(map.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> map.select(-1));
+    }
+
+    @Test
+    void streamsMatchTreeMap() {
+        var map = new AVLMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        var rnd = new Random(34);
+        for (int i = 0; i < 20000; ++i) {
+            int k = rnd.nextInt(50000);
+            map.put(k, i);
+            ref.put(k, i);
+        }
+        var entries = new ArrayList<>(ref.entrySet());
+        assertEquals(entries, map.stream().parallel().collect(Collectors.toList()));
+        assertEquals(new ArrayList<>(ref.keySet()),
+                map.stream().parallel().map(java.util.Map.Entry::getKey).collect(Collectors.toList()));
+        assertEquals(ref.values().stream().mapToLong(v -> v).sum(),
+                map.stream().parallel().mapToLong(java.util.Map.Entry::getValue).sum());
+        var pieces = new ArrayList<java.util.Map.Entry<Integer, Integer>>();
+        SkipListSetTest.splitAll(map.spliterator(), pieces);
+        assertEquals(entries, pieces);
+    }
+
+    @Test
+    void streamedEntriesAreSnapshots() {
+        var map = new AVLMap<Integer, Integer>();
+        for (int i = 0; i < 100; ++i) {
+            map.put(i, i);
+        }
+        var got = map.stream().collect(Collectors.toList());
+        // removing a node with two children moves its successor's key and
+        // value into it, and put() overwrites a value in place
+        for (int i = 40; i < 60; ++i) {
+            map.remove(i);
+        }
+        map.put(10, -1);
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(i, got.get(i).getKey());
+            assertEquals(i, got.get(i).getValue());
+        }
+        assertThrows(UnsupportedOperationException.class, () -> got.get(0).setValue(5));
+        assertTrue(map.stream().noneMatch(e -> e.getKey() >= 40 && e.getKey() < 60));
+    }
+}
@@ -0,0 +1,182 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks BSTMap against java.util.TreeMap.
+ */
+class BSTMapTest {
+
+    // map holds exactly ref's entries, in the same order
+    static void assertSameEntries(TreeMap<Integer, Integer> ref, Map<Integer, Integer> map) {
+        assertEquals(ref.size(), map.size());
+        var keys = new ArrayList<Integer>();
+        map.keyIterator().forEachRemaining(keys::add);
+        assertEquals(new ArrayList<>(ref.keySet()), keys);
+        for (var e : ref.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+    }
+
+    // Random puts and removes, then every navigation query and a batch of
+    // ranges, checking each answer against a TreeMap.
+    static void checkNavigation(SortedMap<Integer, Integer> map, long seed) {
+        var ref = new TreeMap<Integer, Integer>();
+        var rnd = new Random(seed);
+        for (int i = 0; i < 4000; ++i) {
+            // even keys only, so odd probes fall between entries
+            int k = 2 * rnd.nextInt(1000);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.remove(k), map.remove(k));
+            } else {
+                assertEquals(ref.put(k, i), map.put(k, i));
+            }
+        }
+        assertEquals(ref.firstKey(), map.firstKey());
+        assertEquals(ref.lastKey(), map.lastKey());
+        for (int k = -1; k <= 2000; ++k) {
+            assertEquals(ref.floorKey(k), map.floorKey(k));
+            assertEquals(ref.ceilingKey(k), map.ceilingKey(k));
+            assertEquals(ref.lowerKey(k), map.lowerKey(k));
+            assertEquals(ref.higherKey(k), map.higherKey(k));
+        }
+        for (int i = 0; i < 200; ++i) {
+            int from = rnd.nextInt(2002) - 1;
+            int to = from + rnd.nextInt(300);
+            var got = new ArrayList<java.util.Map.Entry<Integer, Integer>>();
+            map.subMap(from, to).forEachRemaining(got::add);
+            assertEquals(new ArrayList<>(ref.subMap(from, to).entrySet()), got);
+        }
+    }
+
+    // The entries subMap() hands out stay as they were when the map changes
+    // under them. Removing a node with two children moves its successor's
+    // key and value into it, which used to show through.
+    static void checkEntriesAreSnapshots(SortedMap<Integer, Integer> map) {
+        // shuffled, so that plenty of nodes have two children
+        var keys = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; ++i) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(16));
+        for (var k : keys) {
+            map.put(k, -k);
+        }
+        var entries = new ArrayList<java.util.Map.Entry<Integer, Integer>>();
+        map.subMap(0, 1000).forEachRemaining(entries::add);
+        for (int i = 0; i < 1000; i += 2) {
+            map.remove(i);
+        }
+        map.put(1, 1);
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(java.util.Map.entry(i, -i), entries.get(i));
+            assertEquals(entries.get(i).hashCode(), java.util.Map.entry(i, -i).hashCode());
+        }
+    }
+
+    @Test
+    void randomOpsMatchTreeMap() {
+        ChainedHashMapTest.checkAgainstHashMap(new BSTMap<>(), 2000, 8);
+    }
+
+    @Test
+    void sortedKeysDontOverflowTheStack() {
+        // sorted puts make the tree one long chain. The old recursive
+        // remove() ran out of stack at about 20000 deep.
+        int n = 40000;
+        var map = new BSTMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < n; ++i) {
+            map.put(i, i);
+            ref.put(i, i);
+        }
+        // a few from the deep end, which walk the whole chain
+        for (int i = n - 1; i >= n - 100; --i) {
+            assertEquals(ref.remove(i), map.remove(i));
+        }
+        assertNull(map.remove(n - 1));
+        // and half of the rest from the root end, which are cheap
+        for (int i = 0; i < n / 2; ++i) {
+            assertEquals(ref.remove(i), map.remove(i));
+        }
+        assertSameEntries(ref, map);
+    }
+
+    @Test
+    void removingFullNodesKeepsOrder() {
+        // a balanced tree, so most removes hit nodes with two children
+        int n = 1023;
+        var keys = new Integer[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = 2 * i;
+        }
+        var map = new BSTMap<Integer, Integer>(keys, keys.clone());
+        var ref = new TreeMap<Integer, Integer>();
+        for (var k : keys) {
+            ref.put(k, k);
+        }
+        for (int i = 0; i < n; i += 3) {
+            assertEquals(ref.remove(keys[i]), map.remove(keys[i]));
+            assertNull(map.remove(keys[i] + 1));
+        }
+        assertSameEntries(ref, map);
+    }
+
+    @Test
+    void mergeSortedMatchesTreeMap() {
+        var rnd = new Random(11);
+        var map = new BSTMap<Integer, Integer>();
+        var ref = new TreeMap<Integer, Integer>();
+        for (int round = 0; round < 20; ++round) {
+            // a sorted batch, some of it new and some already in the map
+            var batch = new TreeMap<Integer, Integer>();
+            int m = rnd.nextInt(500);
+            for (int i = 0; i < m; ++i) {
+                batch.put(rnd.nextInt(5000), round);
+            }
+            var keys = batch.keySet().toArray(new Integer[0]);
+            var values = batch.values().toArray(new Integer[0]);
+            if (round % 5 == 0) {
+                map.loadSorted(keys, values);
+                ref.clear();
+            } else {
+                map.mergeSorted(keys, values);
+            }
+            ref.putAll(batch);
+            assertSameEntries(ref, map);
+        }
+        // and from an iterator, which only ever sees each entry once
+        map.loadSorted(ref.entrySet().iterator(), ref.size());
+        assertSameEntries(ref, map);
+    }
+
+    @Test
+    void unsortedBatchesAreRejected() {
+        var map = new BSTMap<Integer, Integer>();
+        Integer[] keys = {1, 3, 3};
+        assertThrows(IllegalArgumentException.class, () -> map.loadSorted(keys, keys));
+        assertThrows(IllegalArgumentException.class, () -> map.mergeSorted(keys, keys));
+        var ref = new TreeMap<Integer, Integer>(java.util.Map.of(1, 1, 2, 2));
+        assertThrows(IllegalArgumentException.class,
+                () -> map.loadSorted(ref.descendingMap().entrySet().iterator(), 2));
+    }
+
+    @Test
+    void navigationMatchesTreeMap() {
+        checkNavigation(new BSTMap<>(), 13);
+    }
+
+    @Test
+    void rangeEntriesAreSnapshots() {
+        checkEntriesAreSnapshots(new BSTMap<>());
+    }
+}
@@ -0,0 +1,73 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks BTreeMap against java.util.TreeMap. The small fanouts make nodes
+ * split, borrow and merge all the time, and put most neighbouring keys in
+ * different leaves.
+ */
+class BTreeMapTest {
+
+    @Test
+    void randomOpsMatchTreeMap() {
+        long seed = 27;
+        for (int fanout : new int[] {3, 4, 5, 64}) {
+            ChainedHashMapTest.checkAgainstHashMap(new BTreeMap<>(fanout), 2000, seed++);
+        }
+    }
+
+    @Test
+    void navigationMatchesTreeMap() {
+        // floor/ceiling/lower/higher and subMap() keep crossing leaf edges
+        long seed = 31;
+        for (int fanout : new int[] {3, 4, 5, 64}) {
+            BSTMapTest.checkNavigation(new BTreeMap<>(fanout), seed++);
+        }
+    }
+
+    @Test
+    void fillAndEmpty() {
+        for (int fanout : new int[] {3, 4}) {
+            var map = new BTreeMap<Integer, Integer>(fanout);
+            var ref = new TreeMap<Integer, Integer>();
+            var keys = new ArrayList<Integer>();
+            for (int i = 0; i < 3000; ++i) {
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(fanout));
+            for (var k : keys) {
+                assertEquals(ref.put(k, -k), map.put(k, -k));
+            }
+            BSTMapTest.assertSameEntries(ref, map);
+            // remove in another order, checking everything now and then
+            Collections.shuffle(keys, new Random(fanout + 1));
+            for (int i = 0; i < keys.size(); ++i) {
+                assertEquals(ref.remove(keys.get(i)), map.remove(keys.get(i)));
+                if (i % 500 == 0) {
+                    BSTMapTest.assertSameEntries(ref, map);
+                }
+            }
+            assertEquals(0, map.size());
+            // and it works as well the second time round
+            for (int i = 0; i < 100; ++i) {
+                map.put(i, i);
+                ref.put(i, i);
+            }
+            BSTMapTest.assertSameEntries(ref, map);
+        }
+    }
+
+    @Test
+    void fanoutBelowThreeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BTreeMap<Integer, Integer>(2));
+    }
+}
@@ -0,0 +1,55 @@
+package ods;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for the Robin Hood table.
+ */
+class BubbaHashMapTest {
+
+    @Test
+    void putGetRemove() {
+        BubbaHashMap<Integer, Integer> map = new BubbaHashMap<>();
+        for (int i = 0; i < 1000; ++i) {
+            assertNull(map.put(i, i));
+        }
+        assertEquals(1000, map.size());
+        assertEquals(7, map.put(7, 70));
+        assertEquals(1000, map.size());
+        assertEquals(70, map.get(7));
+
+        for (int i = 0; i < 1000; i += 2) {
+            assertEquals(i, map.remove(i));
+        }
+        assertEquals(500, map.size());
+        assertEquals(70, map.remove(7));
+        assertNull(map.remove(7));
+        assertEquals(499, map.size());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i % 2 == 1 && i != 7, map.containsKey(i));
+        }
+    }
+
+    @Test
+    void backwardShiftKeepsCollidingKeysReachable() {
+        // every key lands in the same home slot of a 16-slot table
+        BubbaHashMap<Integer, Integer> map = new BubbaHashMap<>(16, 0.9, Hasher.identity());
+        for (int i = 0; i < 10; ++i) {
+            map.put(i * 16, i);
+        }
+        map.remove(0);
+        map.remove(64);
+        for (int i = 0; i < 10; ++i) {
+            if (i == 0 || i == 4) {
+                assertFalse(map.containsKey(i * 16));
+            } else {
+                assertEquals(i, map.get(i * 16));
+            }
+        }
+        assertEquals(8, map.size());
+    }
+}
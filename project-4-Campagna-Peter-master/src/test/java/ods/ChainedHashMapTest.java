@@ -0,0 +1,174 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks ChainedHashMap against java.util.HashMap.
+ */
+class ChainedHashMapTest {
+
+    // Random puts, removes and gets, checking every answer against ref.
+    static void checkAgainstHashMap(Map<Integer, Integer> map, int keyRange, long seed) {
+        var ref = new HashMap<Integer, Integer>();
+        var rnd = new Random(seed);
+        for (int i = 0; i < 50000; ++i) {
+            int k = rnd.nextInt(keyRange);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                assertEquals(ref.remove(k), map.remove(k));
+            } else if (op == 1) {
+                assertEquals(ref.get(k), map.get(k));
+            } else {
+                assertEquals(ref.put(k, i), map.put(k, i));
+            }
+            assertEquals(ref.size(), map.size());
+        }
+        for (int k = 0; k < keyRange; ++k) {
+            assertEquals(ref.get(k), map.get(k));
+        }
+    }
+
+    @Test
+    void incrementalResizeMatchesHashMap() {
+        // a tiny starting table, so the map is nearly always mid-migration
+        checkAgainstHashMap(new ChainedHashMap<>(2, true), 5000, 5);
+    }
+
+    @Test
+    void growingWhileMigratingKeepsEverything() {
+        var map = new ChainedHashMap<Integer, Integer>(2, true);
+        for (int i = 0; i < 10000; ++i) {
+            map.put(i, i);
+            // everything put so far is visible, whichever table it's in
+            assertEquals(i / 2, map.get(i / 2));
+        }
+        assertEquals(10000, map.size());
+    }
+
+    // A key that counts the calls made on it.
+    static final class CountingKey {
+        static int hashCodes;
+        static int equalses;
+        final int id;
+
+        CountingKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            hashCodes++;
+            return id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            equalses++;
+            return o instanceof CountingKey && ((CountingKey) o).id == id;
+        }
+    }
+
+    @Test
+    void resizingReusesCachedHashes() {
+        int n = 10000;
+        var keys = new CountingKey[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = new CountingKey(i);
+        }
+        CountingKey.hashCodes = 0;
+        CountingKey.equalses = 0;
+        // starts tiny, so it resizes a dozen times on the way up
+        var map = new ChainedHashMap<CountingKey, Integer>(2, false);
+        for (int i = 0; i < n; ++i) {
+            map.put(keys[i], i);
+        }
+        // one hash per put, and no equals() since no two hashes match
+        assertEquals(n, CountingKey.hashCodes);
+        assertEquals(0, CountingKey.equalses);
+        for (int i = 0; i < n; ++i) {
+            assertEquals(i, map.get(new CountingKey(i)));
+        }
+        // one equals() per lookup: just the entry that really matches
+        assertEquals(n, CountingKey.equalses);
+    }
+
+    @Test
+    void collidingKeysMatchHashMap() {
+        // one bucket for everything, so it's a tree nearly all the time,
+        // and shrinks back to a list whenever removes thin it out
+        checkAgainstHashMap(new ChainedHashMap<>(16, false, k -> 7), 5000, 18);
+        checkAgainstHashMap(new ChainedHashMap<>(2, true, k -> 7), 5000, 19);
+        checkAgainstHashMap(new ChainedHashMap<>(16, false, k -> 7), 12, 20);
+    }
+
+    @Test
+    void mixedKeyClassesInOneBucket() {
+        // Integers and Strings can't share a tree, so the bucket has to go
+        // back to being a list when the first String turns up
+        var map = new ChainedHashMap<Object, Integer>(16, false, k -> 7);
+        var ref = new HashMap<Object, Integer>();
+        for (int i = 0; i < 100; ++i) {
+            map.put(i, i);
+            ref.put(i, i);
+        }
+        for (int i = 0; i < 100; i += 3) {
+            map.put("s" + i, -i);
+            ref.put("s" + i, -i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertEquals(ref.remove(i), map.remove(i));
+        }
+        assertEquals(ref.size(), map.size());
+        for (var e : ref.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        assertNull(map.get("s1"));
+    }
+
+    // A parallel stream over spliterator has to see each of ref's entries
+    // exactly once (toMap() throws on a repeated key).
+    static void checkStream(HashMap<Integer, Integer> ref, Spliterator<java.util.Map.Entry<Integer, Integer>> it) {
+        assertEquals(ref.size(), it.getExactSizeIfKnown());
+        var seen = StreamSupport.stream(it, true)
+                .collect(Collectors.toMap(java.util.Map.Entry::getKey, java.util.Map.Entry::getValue));
+        assertEquals(ref, seen);
+    }
+
+    @Test
+    void parallelOpsMatchHashMap() {
+        // a plain table, one that's still migrating when we start, and one
+        // with only 64 buckets in use, nearly all of them trees
+        var maps = List.of(new ChainedHashMap<Integer, Integer>(),
+                new ChainedHashMap<Integer, Integer>(2, true),
+                new ChainedHashMap<Integer, Integer>(16, false, k -> k & 63));
+        for (var map : maps) {
+            var ref = new HashMap<Integer, Integer>();
+            var rnd = new Random(24);
+            for (int i = 0; i < 30000; ++i) {
+                int k = rnd.nextInt(100000);
+                map.put(k, i);
+                ref.put(k, i);
+            }
+            var seen = new ConcurrentHashMap<Integer, Integer>();
+            map.parallelForEach((k, v) -> assertNull(seen.put(k, v)));
+            assertEquals(ref, seen);
+            long sum = ref.values().stream().mapToLong(v -> v).sum();
+            assertEquals(sum, map.parallelReduce((k, v) -> (long) v, Long::sum));
+            int target = ref.keySet().iterator().next();
+            assertEquals(ref.get(target), map.parallelSearch((k, v) -> k == target ? v : null));
+            assertNull(map.parallelSearch((k, v) -> k < 0 ? v : null));
+            checkStream(ref, map.spliterator());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests for ConcurrentChainedHashMap. Each thread works on keys of
+ * its own, so what each one should see is known, and the end result can be
+ * compared with a java.util.HashMap built the same way.
+ */
+class ConcurrentChainedHashMapTest {
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 5000;
+
+    @Test
+    void disjointKeysFromManyThreads() throws Exception {
+        // a small table and few stripes, so threads collide and resize a lot
+        var map = new ConcurrentChainedHashMap<Integer, Integer>(4, 4);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            var results = new ArrayList<Future<HashMap<Integer, Integer>>>();
+            for (int t = 0; t < THREADS; ++t) {
+                final int id = t;
+                Callable<HashMap<Integer, Integer>> job = () -> {
+                    var ref = new HashMap<Integer, Integer>();
+                    var rnd = new Random(id);
+                    for (int i = 0; i < 40000; ++i) {
+                        // keys of thread id are all == id mod THREADS
+                        int k = rnd.nextInt(KEYS_PER_THREAD) * THREADS + id;
+                        int op = rnd.nextInt(3);
+                        if (op == 0) {
+                            assertEquals(ref.remove(k), map.remove(k));
+                        } else if (op == 1) {
+                            assertEquals(ref.get(k), map.get(k));
+                        } else {
+                            assertEquals(ref.put(k, i), map.put(k, i));
+                        }
+                    }
+                    return ref;
+                };
+                results.add(pool.submit(job));
+            }
+            var all = new HashMap<Integer, Integer>();
+            for (var f : results) {
+                all.putAll(f.get());
+            }
+            assertEquals(all.size(), map.size());
+            for (int k = 0; k < KEYS_PER_THREAD * THREADS; ++k) {
+                assertEquals(all.get(k), map.get(k));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void computeIfAbsentRunsOncePerKey() throws Exception {
+        var map = new ConcurrentChainedHashMap<Integer, Integer>(4, 4);
+        var calls = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            var results = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; ++t) {
+                results.add(pool.submit(() -> {
+                    for (int k = 0; k < 2000; ++k) {
+                        assertEquals(k * 2, map.computeIfAbsent(k, x -> {
+                            calls.incrementAndGet();
+                            return x * 2;
+                        }));
+                    }
+                }));
+            }
+            for (var f : results) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(2000, calls.get());
+        assertEquals(2000, map.size());
+    }
+
+    @Test
+    void collidingKeysDontBlowUpTheTable() {
+        // every key hashes to a multiple of 64, so they all land in stripe 0;
+        // the table should still only grow with the total count
+        var map = new ConcurrentChainedHashMap<Integer, Integer>(64, 8, k -> k * 64);
+        var ref = new HashMap<Integer, Integer>();
+        for (int k = 0; k < 4000; ++k) {
+            assertEquals(ref.put(k, k), map.put(k, k));
+        }
+        for (int k = 0; k < 4000; k += 3) {
+            assertEquals(ref.remove(k), map.remove(k));
+        }
+        assertEquals(ref.size(), map.size());
+        for (int k = 0; k < 4000; ++k) {
+            assertEquals(ref.get(k), map.get(k));
+        }
+        assertTrue(map.capacity() <= 4096, "capacity " + map.capacity());
+    }
+}
@@ -0,0 +1,52 @@
+package ods;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs each hash map with each Hasher against java.util.HashMap.
+ */
+class HasherTest {
+
+    static List<Hasher<Integer>> hashers() {
+        // the last one puts every key in the same bucket
+        return List.of(Hasher.identity(), Hasher.murmur(), Hasher.fibonacci(), k -> 7);
+    }
+
+    @Test
+    void everyMapWorksWithEveryHasher() {
+        long seed = 17;
+        for (var h : hashers()) {
+            // few enough keys that the all-colliding hasher stays quick
+            ChainedHashMapTest.checkAgainstHashMap(new LinearProbedHashMap<>(h), 300, seed++);
+            ChainedHashMapTest.checkAgainstHashMap(new BubbaHashMap<>(h), 300, seed++);
+            ChainedHashMapTest.checkAgainstHashMap(new ChainedHashMap<>(h), 300, seed++);
+            ChainedHashMapTest.checkAgainstHashMap(new ConcurrentChainedHashMap<>(16, 4, h), 300, seed++);
+        }
+    }
+
+    // How many keys of i << 16, for i below 4096, land in the fullest of
+    // the 4096 slots of a table masking h's output down to 12 bits.
+    private static int fullestSlot(Hasher<Integer> h) {
+        int mask = (1 << 12) - 1;
+        var counts = new int[mask + 1];
+        int max = 0;
+        for (int i = 0; i <= mask; ++i) {
+            max = Math.max(max, ++counts[h.hash(i << 16) & mask]);
+        }
+        return max;
+    }
+
+    @Test
+    void keysThatDifferOnlyInHighBitsAreSpread() {
+        // identity() keeps only the low bits, which are all zero here
+        assertEquals(1 << 12, fullestSlot(Hasher.identity()));
+        // random slots would put about 7 keys in the fullest one
+        assertTrue(fullestSlot(Hasher.murmur()) <= 12, "murmur");
+        assertTrue(fullestSlot(Hasher.fibonacci()) <= 12, "fibonacci");
+    }
+}
@@ -0,0 +1,38 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks IntIntHashMap against java.util.HashMap.
+ */
+class IntIntHashMapTest {
+
+    @Test
+    void randomOpsMatchHashMap() {
+        var map = new IntIntHashMap(8, 0.5, -1);
+        var ref = new HashMap<Integer, Integer>();
+        var rnd = new Random(3);
+        for (int i = 0; i < 50000; ++i) {
+            // small keys, plus now and then the two sentinel keys
+            int k = rnd.nextInt(50) == 0 ? (rnd.nextBoolean() ? 0 : Integer.MIN_VALUE) : rnd.nextInt(2000) - 1000;
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.getOrDefault(k, -1), map.remove(k));
+                ref.remove(k);
+            } else {
+                assertEquals(ref.getOrDefault(k, -1), map.put(k, i));
+                ref.put(k, i);
+            }
+            assertEquals(ref.size(), map.size());
+        }
+        for (int k = -1000; k < 1000; ++k) {
+            assertEquals(ref.getOrDefault(k, -1), map.get(k));
+            assertEquals(ref.containsKey(k), map.containsKey(k));
+        }
+        assertEquals(ref.containsKey(Integer.MIN_VALUE), map.containsKey(Integer.MIN_VALUE));
+    }
+}
@@ -0,0 +1,73 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks IntObjectHashMap against java.util.HashMap.
+ */
+class IntObjectHashMapTest {
+
+    // IntObjectHashMap and LongObjectHashMap, both seen through long keys,
+    // so the one check covers the two of them.
+    interface LongKeyed {
+        String put(long key, String value);
+
+        String remove(long key);
+
+        String get(long key);
+
+        int size();
+    }
+
+    // Random puts and removes of small keys, plus now and then the two
+    // sentinel keys, 0 and deleted.
+    static void checkAgainstHashMap(LongKeyed map, long deleted) {
+        var ref = new HashMap<Long, String>();
+        var rnd = new Random(4);
+        for (int i = 0; i < 50000; ++i) {
+            long k = rnd.nextInt(50) == 0 ? (rnd.nextBoolean() ? 0 : deleted) : rnd.nextInt(2000) - 1000;
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.remove(k), map.remove(k));
+            } else {
+                assertEquals(ref.put(k, "v" + i), map.put(k, "v" + i));
+            }
+            assertEquals(ref.size(), map.size());
+        }
+        for (long k = -1000; k < 1000; ++k) {
+            assertEquals(ref.get(k), map.get(k));
+        }
+        assertEquals(ref.get(deleted), map.get(deleted));
+        assertEquals(ref.get(0L), map.get(0));
+    }
+
+    @Test
+    void randomOpsMatchHashMap() {
+        var map = new IntObjectHashMap<String>();
+        checkAgainstHashMap(new LongKeyed() {
+            @Override
+            public String put(long key, String value) {
+                return map.put((int) key, value);
+            }
+
+            @Override
+            public String remove(long key) {
+                return map.remove((int) key);
+            }
+
+            @Override
+            public String get(long key) {
+                return map.get((int) key);
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        }, Integer.MIN_VALUE);
+    }
+}
@@ -0,0 +1,91 @@
+package ods;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Checks LinearProbedHashMap against java.util.HashMap.
+ */
+class LinearProbedHashMapTest {
+
+    @Test
+    void randomOpsMatchHashMap() {
+        var map = new LinearProbedHashMap<Integer, Integer>();
+        var ref = new HashMap<Integer, Integer>();
+        var rnd = new Random(2);
+        for (int i = 0; i < 50000; ++i) {
+            int k = rnd.nextInt(2000);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.remove(k), map.remove(k));
+            } else {
+                assertEquals(ref.put(k, i), map.put(k, i));
+            }
+            assertEquals(ref.size(), map.size());
+        }
+        for (int k = 0; k < 2000; ++k) {
+            assertEquals(ref.get(k), map.get(k));
+        }
+    }
+
+    @Test
+    void incrementalResizeMatchesHashMap() {
+        // a tiny starting table, so the map is nearly always mid-migration
+        ChainedHashMapTest.checkAgainstHashMap(new LinearProbedHashMap<>(2, 0.5, true), 5000, 6);
+    }
+
+    @Test
+    void tombstonesDontHideKeys() {
+        // every key starts probing at slot 0, so removing the early ones
+        // leaves tombstones in front of the later ones
+        var map = new LinearProbedHashMap<Integer, String>(64, 0.9, false, Hasher.identity());
+        for (int i = 0; i < 20; ++i) {
+            map.put(i * 64, "v" + i);
+        }
+        for (int i = 0; i < 20; i += 2) {
+            assertEquals("v" + i, map.remove(i * 64));
+        }
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(i % 2 == 0 ? null : "v" + i, map.get(i * 64));
+        }
+        // a re-added key goes into a tombstone and is found again
+        assertNull(map.put(0, "again"));
+        assertEquals("again", map.get(0));
+        assertEquals(11, map.size());
+    }
+
+    @Test
+    void parallelOpsMatchHashMap() {
+        // one that's still migrating when we start, and one with a lot of
+        // tombstones in it
+        var maps = List.of(new LinearProbedHashMap<Integer, Integer>(2, 0.5, true),
+                new LinearProbedHashMap<Integer, Integer>(1 << 17));
+        for (var map : maps) {
+            var ref = new HashMap<Integer, Integer>();
+            var rnd = new Random(25);
+            for (int i = 0; i < 40000; ++i) {
+                int k = rnd.nextInt(100000);
+                map.put(k, i);
+                ref.put(k, i);
+                if (i % 3 == 0) {
+                    assertEquals(ref.remove(i), map.remove(i));
+                }
+            }
+            var seen = new ConcurrentHashMap<Integer, Integer>();
+            map.parallelForEach((k, v) -> assertNull(seen.put(k, v)));
+            assertEquals(ref, seen);
+            long sum = ref.values().stream().mapToLong(v -> v).sum();
+            assertEquals(sum, map.parallelReduce((k, v) -> (long) v, Long::sum));
+            int target = ref.keySet().iterator().next();
+            assertEquals(ref.get(target), map.parallelSearch((k, v) -> k == target ? v : null));
+            assertNull(map.parallelSearch((k, v) -> k < 0 ? v : null));
+            ChainedHashMapTest.checkStream(ref, map.spliterator());
+        }
+    }
+}
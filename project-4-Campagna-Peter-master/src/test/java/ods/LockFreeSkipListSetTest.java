@@ -0,0 +1,107 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Stress tests for the lock-free skip list. Threads that work on keys of
+ * their own can check every answer they get; threads that fight over the
+ * same keys can at least check that each key is removed exactly once.
+ */
+class LockFreeSkipListSetTest {
+    private static final int THREADS = 8;
+
+    @Test
+    void disjointKeysFromManyThreads() throws Exception {
+        var set = new LockFreeSkipListSet<Integer>();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            var results = new ArrayList<Future<TreeSet<Integer>>>();
+            for (int t = 0; t < THREADS; ++t) {
+                final int id = t;
+                Callable<TreeSet<Integer>> job = () -> {
+                    var ref = new TreeSet<Integer>();
+                    var rnd = new Random(id);
+                    for (int i = 0; i < 50000; ++i) {
+                        // keys of thread id are all == id mod THREADS
+                        int k = rnd.nextInt(3000) * THREADS + id;
+                        int op = rnd.nextInt(3);
+                        if (op == 0) {
+                            assertEquals(ref.remove(k) ? k : null, set.remove(k));
+                        } else if (op == 1) {
+                            assertEquals(ref.contains(k) ? k : null, set.find(k));
+                        } else {
+                            set.add(k);
+                            ref.add(k);
+                        }
+                    }
+                    return ref;
+                };
+                results.add(pool.submit(job));
+            }
+            var all = new TreeSet<Integer>();
+            for (var f : results) {
+                all.addAll(f.get());
+            }
+            assertEquals(all.size(), set.size());
+            for (int k = 0; k < 3000 * THREADS; ++k) {
+                assertEquals(all.contains(k) ? k : null, set.find(k));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void sharedKeysAreAddedAndRemovedOnce() throws Exception {
+        var set = new LockFreeSkipListSet<Integer>();
+        var removed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            // everybody adds the same keys...
+            var results = new ArrayList<Future<?>>();
+            for (int t = 0; t < THREADS; ++t) {
+                results.add(pool.submit(() -> {
+                    for (int k = 0; k < 5000; ++k) {
+                        set.add(k);
+                    }
+                }));
+            }
+            for (var f : results) {
+                f.get();
+            }
+            assertEquals(5000, set.size());
+            // ...and then everybody tries to remove the even ones
+            results.clear();
+            for (int t = 0; t < THREADS; ++t) {
+                results.add(pool.submit(() -> {
+                    for (int k = 0; k < 5000; k += 2) {
+                        if (set.remove(k) != null) {
+                            removed.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (var f : results) {
+                f.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(2500, removed.get());
+        assertEquals(2500, set.size());
+        for (int k = 0; k < 5000; ++k) {
+            assertEquals(k % 2 == 1 ? k : null, set.find(k));
+        }
+    }
+}
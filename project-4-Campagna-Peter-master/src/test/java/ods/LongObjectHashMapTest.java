@@ -0,0 +1,35 @@
+package ods;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks LongObjectHashMap against java.util.HashMap.
+ */
+class LongObjectHashMapTest {
+
+    @Test
+    void randomOpsMatchHashMap() {
+        var map = new LongObjectHashMap<String>();
+        IntObjectHashMapTest.checkAgainstHashMap(new IntObjectHashMapTest.LongKeyed() {
+            @Override
+            public String put(long key, String value) {
+                return map.put(key, value);
+            }
+
+            @Override
+            public String remove(long key) {
+                return map.remove(key);
+            }
+
+            @Override
+            public String get(long key) {
+                return map.get(key);
+            }
+
+            @Override
+            public int size() {
+                return map.size();
+            }
+        }, Long.MIN_VALUE);
+    }
+}
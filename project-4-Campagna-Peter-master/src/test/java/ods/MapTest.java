@@ -0,0 +1,173 @@
+package ods;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the operations every ods.Map has, whether it inherits them from
+ * the interface or has its own, against java.util.HashMap.
+ */
+class MapTest {
+
+    // one of each kind of map, made fresh each time
+    static List<Supplier<Map<Integer, Integer>>> maps() {
+        return List.of(
+                ChainedHashMap::new,
+                () -> new ChainedHashMap<>(2, true),
+                LinearProbedHashMap::new,
+                () -> new LinearProbedHashMap<>(2, 0.5, true),
+                BubbaHashMap::new,
+                () -> new ConcurrentChainedHashMap<>(16, 4),
+                BSTMap::new,
+                AVLMap::new,
+                () -> new BTreeMap<>(4),
+                () -> new OffHeapHashMap<>(Codec.ints(), Codec.ints()));
+    }
+
+    static void close(Map<Integer, Integer> map) throws Exception {
+        if (map instanceof AutoCloseable) {
+            ((AutoCloseable) map).close();
+        }
+    }
+
+    @Test
+    void batchesMatchHashMap() throws Exception {
+        for (var make : maps()) {
+            var map = make.get();
+            var ref = new HashMap<Integer, Integer>();
+            var rnd = new Random(33);
+            // small batches next to the map and big ones, which the trees
+            // handle differently
+            for (int m : new int[] {1, 10, 5000, 3, 200, 20000, 7}) {
+                var keys = new Integer[m];
+                var values = new Integer[m];
+                for (int i = 0; i < m; ++i) {
+                    // duplicates within a batch too: the last one wins
+                    keys[i] = rnd.nextInt(30000);
+                    values[i] = rnd.nextInt();
+                    ref.put(keys[i], values[i]);
+                }
+                map.putAll(keys, values);
+                assertEquals(ref.size(), map.size(), map.getClass().getName());
+
+                var probe = new Integer[2 * m];
+                for (int i = 0; i < probe.length; ++i) {
+                    probe[i] = i < m ? keys[i] : rnd.nextInt(40000);
+                }
+                // out may be longer than keys; the rest is left alone
+                var out = new Integer[probe.length + 1];
+                out[probe.length] = -1;
+                map.getAll(probe, out);
+                for (int i = 0; i < probe.length; ++i) {
+                    assertEquals(ref.get(probe[i]), out[i], map.getClass().getName());
+                }
+                assertEquals(-1, out[probe.length]);
+            }
+            assertThrows(IllegalArgumentException.class, () -> map.getAll(new Integer[2], new Integer[1]));
+            assertThrows(IllegalArgumentException.class, () -> map.putAll(new Integer[2], new Integer[1]));
+            close(map);
+        }
+    }
+
+    @Test
+    void cursorsVisitEveryEntryOnce() throws Exception {
+        for (var make : maps()) {
+            var map = make.get();
+            var name = map.getClass().getName();
+            var empty = map.cursor();
+            assertFalse(empty.advance(), name);
+            assertFalse(empty.advance(), name);
+
+            var ref = new HashMap<Integer, Integer>();
+            var rnd = new Random(34);
+            for (int i = 0; i < 5000; ++i) {
+                int k = rnd.nextInt(8000);
+                if (i % 4 == 0) {
+                    ref.remove(k);
+                    map.remove(k);
+                } else {
+                    ref.put(k, i);
+                    map.put(k, i);
+                }
+            }
+
+            var seen = new HashMap<Integer, Integer>();
+            var c = map.cursor();
+            while (c.advance()) {
+                assertNull(seen.put(c.key(), c.value()), name);
+            }
+            assertFalse(c.advance(), name);
+            assertEquals(ref, seen, name);
+
+            var each = new HashMap<Integer, Integer>();
+            map.forEach((k, v) -> assertNull(each.put(k, v)));
+            assertEquals(ref, each, name);
+
+            // the iterators come out in the same order as the cursor
+            var keys = new ArrayList<Integer>();
+            var values = new ArrayList<Integer>();
+            var it = map.keyIterator();
+            // hasNext() doesn't move anything on by itself
+            assertTrue(it.hasNext() && it.hasNext(), name);
+            it.forEachRemaining(keys::add);
+            map.valueIterator().forEachRemaining(values::add);
+            assertEquals(ref.size(), keys.size(), name);
+            for (int i = 0; i < keys.size(); ++i) {
+                assertEquals(ref.get(keys.get(i)), values.get(i), name);
+            }
+            assertThrows(NoSuchElementException.class, it::next, name);
+            close(map);
+        }
+    }
+
+    @Test
+    void cursorsFailFast() throws Exception {
+        for (var make : maps()) {
+            var map = make.get();
+            var name = map.getClass().getName();
+            for (int i = 0; i < 100; ++i) {
+                map.put(i, i);
+            }
+            boolean weak = map instanceof ConcurrentChainedHashMap;
+
+            // changing a value isn't a structural change
+            var c = map.cursor();
+            assertTrue(c.advance());
+            map.put(c.key(), -1);
+            assertTrue(c.advance(), name);
+
+            c = map.cursor();
+            assertTrue(c.advance());
+            map.put(1000, 1000);
+            if (weak) {
+                // never throws; it just might miss the change
+                while (c.advance()) {
+                    continue;
+                }
+            } else {
+                assertThrows(ConcurrentModificationException.class, c::advance, name);
+            }
+
+            var it = map.keyIterator();
+            it.next();
+            map.remove(1000);
+            if (!weak) {
+                assertThrows(ConcurrentModificationException.class, it::next, name);
+            }
+            close(map);
+        }
+    }
+}
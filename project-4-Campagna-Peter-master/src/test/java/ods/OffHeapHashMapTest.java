@@ -0,0 +1,150 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks OffHeapHashMap against java.util.HashMap.
+ */
+class OffHeapHashMapTest {
+
+    @Test
+    void randomOpsMatchHashMap() {
+        try (var map = new OffHeapHashMap<>(2, Codec.ints(), Codec.ints())) {
+            ChainedHashMapTest.checkAgainstHashMap(map, 5000, 21);
+        }
+    }
+
+    @Test
+    void stringKeysMatchHashMap() {
+        try (var map = new OffHeapHashMap<>(Codec.strings(12), Codec.longs())) {
+            var ref = new HashMap<String, Long>();
+            for (long i = 0; i < 20000; ++i) {
+                var k = "k" + (i * 7919 % 10000);
+                if (i % 3 == 0) {
+                    assertEquals(ref.remove(k), map.remove(k));
+                } else {
+                    assertEquals(ref.put(k, i), map.put(k, i));
+                }
+            }
+            assertEquals(ref.size(), map.size());
+            for (var e : ref.entrySet()) {
+                assertEquals(e.getValue(), map.get(e.getKey()));
+            }
+            var seen = new HashMap<String, Long>();
+            map.forEach(seen::put);
+            assertEquals(ref, seen);
+        }
+    }
+
+    @Test
+    void closedMapThrows() {
+        var map = new OffHeapHashMap<>(Codec.ints(), Codec.ints());
+        map.put(1, 1);
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.get(1));
+        assertThrows(IllegalStateException.class, () -> map.put(2, 2));
+    }
+
+    static void assertSameEntries(HashMap<Integer, Integer> ref, Map<Integer, Integer> map) {
+        assertEquals(ref.size(), map.size());
+        var seen = new HashMap<Integer, Integer>();
+        map.forEach(seen::put);
+        assertEquals(ref, seen);
+        for (var e : ref.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+    }
+
+    @Test
+    void snapshotRoundTrip(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        var ref = new HashMap<Integer, Integer>();
+        try (var map = new OffHeapHashMap<>(Codec.ints(), Codec.ints())) {
+            for (int i = 0; i < 10000; ++i) {
+                map.put(i * 31, i);
+                ref.put(i * 31, i);
+            }
+            for (int i = 0; i < 10000; i += 4) {
+                map.remove(i * 31);
+                ref.remove(i * 31);
+            }
+            map.writeTo(file);
+        }
+        try (var map = OffHeapHashMap.open(file, Codec.ints(), Codec.ints())) {
+            assertSameEntries(ref, map);
+            // changes to a reopened map stay out of the file
+            map.put(-1, -1);
+            map.remove(31);
+        }
+        try (var map = OffHeapHashMap.open(file, Codec.ints(), Codec.ints())) {
+            assertSameEntries(ref, map);
+        }
+        // nothing left behind in the directory but the file itself
+        try (var files = Files.list(dir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void saveOverTheFileItWasOpenedFrom(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        var ref = new HashMap<Integer, Integer>();
+        try (var map = new OffHeapHashMap<>(Codec.ints(), Codec.ints())) {
+            for (int i = 0; i < 5000; ++i) {
+                map.put(i, i);
+                ref.put(i, i);
+            }
+            map.writeTo(file);
+        }
+        try (var map = OffHeapHashMap.open(file, Codec.ints(), Codec.ints())) {
+            for (int i = 0; i < 5000; i += 3) {
+                map.put(i, -i);
+                ref.put(i, -i);
+            }
+            map.writeTo(file);
+            // and the map still reads its old, now unlinked, pages
+            assertSameEntries(ref, map);
+        }
+        try (var map = OffHeapHashMap.open(file, Codec.ints(), Codec.ints())) {
+            assertSameEntries(ref, map);
+        }
+    }
+
+    @Test
+    void linearProbedSnapshotOpensOffHeap(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        var lp = new LinearProbedHashMap<Integer, Integer>(Hasher.murmur());
+        var ref = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 3000; ++i) {
+            lp.put(i, 2 * i);
+            ref.put(i, 2 * i);
+        }
+        lp.writeSnapshot(file, Codec.ints(), Codec.ints());
+        try (var map = OffHeapHashMap.open(file, Codec.ints(), Codec.ints())) {
+            assertSameEntries(ref, map);
+            assertNull(map.get(3000));
+        }
+    }
+
+    @Test
+    void openRejectsOtherFiles(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("junk.bin");
+        Files.write(file, new byte[100]);
+        assertThrows(IOException.class, () -> OffHeapHashMap.open(file, Codec.ints(), Codec.ints()));
+        try (var map = new OffHeapHashMap<>(Codec.ints(), Codec.ints())) {
+            map.writeTo(file);
+        }
+        // same file, but a different value width
+        assertThrows(IOException.class, () -> OffHeapHashMap.open(file, Codec.ints(), Codec.longs()));
+    }
+}
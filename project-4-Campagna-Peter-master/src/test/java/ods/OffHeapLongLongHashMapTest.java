@@ -0,0 +1,88 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks OffHeapLongLongHashMap against java.util.HashMap.
+ */
+class OffHeapLongLongHashMapTest {
+
+    // Random puts and removes, with the sentinel keys mixed in, checking
+    // every answer against ref. Returns ref.
+    static HashMap<Long, Long> fill(OffHeapLongLongHashMap map, long seed) {
+        var ref = new HashMap<Long, Long>();
+        var rnd = new Random(seed);
+        for (int i = 0; i < 50000; ++i) {
+            long k = rnd.nextInt(50) == 0 ? (rnd.nextBoolean() ? 0 : Long.MIN_VALUE) : rnd.nextInt(4000) - 2000;
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.getOrDefault(k, -1L), map.remove(k));
+                ref.remove(k);
+            } else {
+                assertEquals(ref.getOrDefault(k, -1L), map.put(k, i));
+                ref.put(k, (long) i);
+            }
+            assertEquals(ref.size(), map.size());
+        }
+        return ref;
+    }
+
+    static void assertSameEntries(HashMap<Long, Long> ref, OffHeapLongLongHashMap map) {
+        assertEquals(ref.size(), map.size());
+        for (long k = -2000; k < 2000; ++k) {
+            assertEquals(ref.getOrDefault(k, -1L), map.get(k));
+            assertEquals(ref.containsKey(k), map.containsKey(k));
+        }
+        assertEquals(ref.getOrDefault(Long.MIN_VALUE, -1L), map.get(Long.MIN_VALUE));
+    }
+
+    @Test
+    void randomOpsMatchHashMap() {
+        try (var map = new OffHeapLongLongHashMap(2, 0.5, -1)) {
+            assertSameEntries(fill(map, 22), map);
+        }
+    }
+
+    @Test
+    void closedMapThrows() {
+        var map = new OffHeapLongLongHashMap();
+        map.put(1, 1);
+        map.close();
+        assertThrows(IllegalStateException.class, () -> map.get(1));
+        assertThrows(IllegalStateException.class, () -> map.put(2, 2));
+    }
+
+    @Test
+    void snapshotRoundTrip(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("map.bin");
+        HashMap<Long, Long> ref;
+        try (var map = new OffHeapLongLongHashMap(2, 0.5, -1)) {
+            ref = fill(map, 23);
+            map.writeTo(file);
+        }
+        try (var map = OffHeapLongLongHashMap.open(file)) {
+            assertSameEntries(ref, map);
+            // the sentinel keys and the no-entry value come back too
+            map.put(0, 5);
+            map.remove(Long.MIN_VALUE);
+            map.put(7, 7);
+            // saved over the file it was opened from
+            map.writeTo(file);
+            ref.put(0L, 5L);
+            ref.remove(Long.MIN_VALUE);
+            ref.put(7L, 7L);
+            assertSameEntries(ref, map);
+        }
+        try (var map = OffHeapLongLongHashMap.open(file)) {
+            assertSameEntries(ref, map);
+        }
+    }
+}
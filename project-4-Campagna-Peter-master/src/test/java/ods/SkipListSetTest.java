@@ -0,0 +1,306 @@
+package ods;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks SkipListSet against java.util.TreeSet.
+ */
+class SkipListSetTest {
+
+    @Test
+    void navigationMatchesTreeSet() {
+        var set = new SkipListSet<Integer>(15);
+        var ref = new TreeSet<Integer>();
+        var rnd = new Random(15);
+        for (int i = 0; i < 4000; ++i) {
+            // even values only, so odd probes fall between elements
+            int v = 2 * rnd.nextInt(1000);
+            if (rnd.nextInt(3) == 0) {
+                assertEquals(ref.remove(v) ? v : null, set.remove(v));
+            } else {
+                ref.add(v);
+                set.add(v);
+            }
+            assertEquals(ref.size(), set.size());
+        }
+        assertEquals(ref.first(), set.first());
+        assertEquals(ref.last(), set.last());
+        for (int v = -1; v <= 2000; ++v) {
+            assertEquals(ref.floor(v), set.floor(v));
+            assertEquals(ref.ceiling(v), set.ceiling(v));
+            assertEquals(ref.lower(v), set.lower(v));
+            assertEquals(ref.higher(v), set.higher(v));
+        }
+        for (int i = 0; i < 200; ++i) {
+            int from = rnd.nextInt(2002) - 1;
+            int to = from + rnd.nextInt(300);
+            var got = new ArrayList<Integer>();
+            set.subSet(from, to).forEachRemaining(got::add);
+            assertEquals(new ArrayList<>(ref.subSet(from, to)), got);
+        }
+    }
+
+    // set holds exactly ref's elements, in the same order
+    static void assertSameElements(TreeSet<Integer> ref, SkipListSet<Integer> set) {
+        assertEquals(ref.size(), set.size());
+        var got = new ArrayList<Integer>();
+        if (!ref.isEmpty()) {
+            set.subSet(ref.first(), Integer.MAX_VALUE).forEachRemaining(got::add);
+        }
+        assertEquals(new ArrayList<>(ref), got);
+    }
+
+    @Test
+    void writeToReadFromRoundTrip(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("set.bin");
+        var set = new SkipListSet<Integer>(25);
+        var ref = new TreeSet<Integer>();
+        var rnd = new Random(25);
+        for (int i = 0; i < 20000; ++i) {
+            int v = rnd.nextInt(100000);
+            set.add(v);
+            ref.add(v);
+        }
+        set.writeTo(file, Codec.ints());
+        var back = SkipListSet.readFrom(file, Codec.ints());
+        assertSameElements(ref, back);
+        // and it's an ordinary set from then on
+        for (int i = 0; i < 1000; ++i) {
+            int v = rnd.nextInt(100000);
+            if (i % 2 == 0) {
+                assertEquals(ref.remove(v) ? v : null, back.remove(v));
+            } else {
+                back.add(v);
+                ref.add(v);
+            }
+        }
+        assertSameElements(ref, back);
+    }
+
+    @Test
+    void emptyAndForeignFiles(@TempDir Path dir) throws IOException {
+        var file = dir.resolve("set.bin");
+        new SkipListSet<Integer>().writeTo(file, Codec.ints());
+        var back = SkipListSet.readFrom(file, Codec.ints());
+        assertEquals(0, back.size());
+        back.add(1);
+        assertEquals(1, back.find(1));
+        Files.write(file, new byte[64]);
+        assertThrows(IOException.class, () -> SkipListSet.readFrom(file, Codec.ints()));
+    }
+
+    @Test
+    void addAfterRemovingTheLastElement() {
+        var set = new SkipListSet<Integer>(26);
+        set.add(5);
+        assertEquals(5, set.remove(5));
+        assertNull(set.find(5));
+        set.add(6);
+        set.add(4);
+        assertEquals(2, set.size());
+        assertEquals(4, set.first());
+        assertEquals(6, set.last());
+    }
+
+    @Test
+    void randomOpsMatchTreeSet() {
+        // 0 is a seed the generator can't use, so it gets swapped for another
+        for (long seed : new long[] {0, 1, 27, -5}) {
+            var set = new SkipListSet<Integer>(seed);
+            var ref = new TreeSet<Integer>();
+            var rnd = new Random(seed);
+            for (int i = 0; i < 20000; ++i) {
+                int v = rnd.nextInt(3000);
+                if (rnd.nextInt(3) == 0) {
+                    assertEquals(ref.remove(v) ? v : null, set.remove(v));
+                } else {
+                    ref.add(v);
+                    set.add(v);
+                }
+                assertEquals(ref.contains(v) ? v : null, set.find(v));
+            }
+            assertSameElements(ref, set);
+        }
+    }
+
+    @Test
+    void sameSeedBuildsTheSameList() {
+        var a = new SkipListSet<Integer>(28);
+        var b = new SkipListSet<Integer>(28);
+        for (int i = 0; i < 100000; ++i) {
+            a.add(i);
+            b.add(i);
+        }
+        assertEquals(a.averageHeight(), b.averageHeight());
+        // each node goes up a level with probability 1/2, for an average
+        // of one level above the bottom one
+        assertEquals(1.0, a.averageHeight(), 0.05);
+    }
+
+    @Test
+    void fingerWorksInBothDirections() {
+        var set = new SkipListSet<Integer>(29);
+        var ref = new TreeSet<Integer>();
+        // descending adds, so every search starts just after val
+        for (int v = 20000; v > 0; v -= 2) {
+            set.add(v);
+            ref.add(v);
+        }
+        assertSameElements(ref, set);
+        // then a zig-zag of finds, adds and removes around a drifting point
+        var rnd = new Random(29);
+        int at = 10000;
+        for (int i = 0; i < 50000; ++i) {
+            at = Math.max(0, Math.min(20001, at + rnd.nextInt(41) - 20));
+            int v = at + rnd.nextInt(21) - 10;
+            int op = rnd.nextInt(3);
+            if (op == 0) {
+                assertEquals(ref.contains(v) ? v : null, set.find(v));
+            } else if (op == 1) {
+                set.add(v);
+                ref.add(v);
+            } else {
+                assertEquals(ref.remove(v) ? v : null, set.remove(v));
+            }
+        }
+        assertSameElements(ref, set);
+    }
+
+    @Test
+    void appendIfGreaterOnlyAppends() {
+        var set = new SkipListSet<Integer>(30);
+        var ref = new TreeSet<Integer>();
+        for (int v = 0; v < 10000; v += 3) {
+            assertTrue(set.appendIfGreater(v));
+            ref.add(v);
+            // ones that aren't past the end are turned away
+            assertFalse(set.appendIfGreater(v));
+            assertFalse(set.appendIfGreater(v / 2));
+        }
+        assertSameElements(ref, set);
+        // and the set carries on as usual, from either end
+        for (int v = 1; v < 10000; v += 7) {
+            set.add(v);
+            ref.add(v);
+        }
+        assertTrue(set.appendIfGreater(20000));
+        ref.add(20000);
+        assertSameElements(ref, set);
+    }
+
+    @Test
+    void indexingMatchesTreeSet() {
+        var set = new SkipListSet<Integer>(31);
+        var ref = new TreeSet<Integer>();
+        var rnd = new Random(31);
+        // every kind of update, so each has to keep the link widths right
+        for (int i = 0; i < 30000; ++i) {
+            int v = rnd.nextInt(6000);
+            int op = rnd.nextInt(4);
+            if (op == 0) {
+                assertEquals(ref.remove(v) ? v : null, set.remove(v));
+            } else if (op == 1 && (ref.isEmpty() || v > ref.last())) {
+                assertTrue(set.appendIfGreater(v));
+                ref.add(v);
+            } else {
+                set.add(v);
+                ref.add(v);
+            }
+        }
+        var sorted = new ArrayList<>(ref);
+        for (int i = 0; i < sorted.size(); ++i) {
+            assertEquals(sorted.get(i), set.get(i));
+            assertEquals(i, set.rank(sorted.get(i)));
+        }
+        for (int v = -1; v <= 6000; ++v) {
+            assertEquals(ref.headSet(v).size(), set.rank(v));
+        }
+        for (int i = 0; i < 200; ++i) {
+            int from = rnd.nextInt(sorted.size() + 1);
+            int to = from + rnd.nextInt(sorted.size() - from + 1);
+            var got = new ArrayList<Integer>();
+            set.subList(from, to).forEachRemaining(got::add);
+            assertEquals(sorted.subList(from, to), got);
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> set.get(sorted.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.get(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> set.subList(2, 1));
+    }
+
+    // Split it all the way down, then walk the pieces in order into out.
+    // Every piece should know its exact size.
+    static <T> void splitAll(Spliterator<T> it, List<T> out) {
+        long size = it.getExactSizeIfKnown();
+        int before = out.size();
+        var prefix = it.trySplit();
+        if (prefix != null) {
+            splitAll(prefix, out);
+            splitAll(it, out);
+        } else {
+            it.forEachRemaining(out::add);
+        }
+        assertEquals(size, out.size() - before);
+    }
+
+    @Test
+    void streamsMatchTreeSet() {
+        var set = new SkipListSet<Integer>(33);
+        var ref = new TreeSet<Integer>();
+        var rnd = new Random(33);
+        for (int i = 0; i < 20000; ++i) {
+            int v = rnd.nextInt(50000);
+            set.add(v);
+            ref.add(v);
+        }
+        var sorted = new ArrayList<>(ref);
+        assertEquals(sorted, set.stream().parallel().collect(Collectors.toList()));
+        assertEquals(sorted.subList(0, 100), set.stream().parallel().limit(100).collect(Collectors.toList()));
+        assertEquals(ref.stream().mapToLong(v -> v).sum(), set.stream().parallel().mapToLong(v -> v).sum());
+        var pieces = new ArrayList<Integer>();
+        splitAll(set.spliterator(), pieces);
+        assertEquals(sorted, pieces);
+    }
+
+    @Test
+    void spliteratorsFailFast() {
+        var set = new SkipListSet<Integer>(34);
+        for (int i = 0; i < 100; ++i) {
+            set.add(i);
+        }
+        var it = set.spliterator();
+        assertTrue(it.tryAdvance(v -> { }));
+        set.add(1000);
+        assertThrows(ConcurrentModificationException.class, () -> it.tryAdvance(v -> { }));
+
+        var whole = set.spliterator();
+        var prefix = whole.trySplit();
+        set.remove(50);
+        assertThrows(ConcurrentModificationException.class, () -> prefix.forEachRemaining(v -> { }));
+        assertThrows(ConcurrentModificationException.class, () -> whole.forEachRemaining(v -> { }));
+
+        // a failed append changes nothing, so it leaves spliterators alone
+        var after = set.spliterator();
+        assertFalse(set.appendIfGreater(5));
+        assertTrue(after.tryAdvance(v -> { }));
+        assertTrue(set.appendIfGreater(2000));
+        assertThrows(ConcurrentModificationException.class, () -> after.tryAdvance(v -> { }));
+    }
+}